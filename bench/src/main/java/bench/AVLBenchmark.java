@@ -0,0 +1,32 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Recherche dans l'AVL construit sur la palette des feuilles de chaque image du corpus
+ * Chaque appel effectue OPERATIONS recherches de couleurs presentes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AVLBenchmark extends Palette {
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public void searchAVL(Blackhole trou) {
+        for (int rgb : presentes) {
+            trou.consume(Projet.searchAVL(avl, rgb));
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Insertions et suppressions dans l'AVL de la palette
+ * L'AVL est reconstruit avant chaque appel (hors mesure) pour que add et remove
+ * partent toujours de la meme palette; le taux d'allocation du profileur GC
+ * compte aussi cette reconstruction.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AVLModificationBenchmark extends Palette {
+    @Setup(Level.Invocation)
+    public void nouvelAVL() {
+        avl = Projet.avl(arbre);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public void add() {
+        for (int rgb : nouvelles) {
+            Projet.add(avl, rgb);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public void remove() {
+        for (int rgb : presentes) {
+            Projet.remove(avl, rgb);
+        }
+    }
+}
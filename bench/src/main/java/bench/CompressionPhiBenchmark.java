@@ -0,0 +1,43 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compression Phi sur une plage de parametres (nombre de feuilles vise)
+ * La compression modifie l'arbre: un arbre neuf est construit avant chaque appel
+ * (Level.Invocation, hors mesure), ce qui reste negligeable devant la duree d'une compression
+ * sauf sur les plus petites images.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionPhiBenchmark extends Corpus {
+    @Param({"1", "100", "1000", "10000"})
+    public int phi;
+
+    private Object arbre;
+
+    @Setup(Level.Invocation)
+    public void nouvelArbre() {
+        arbre = Projet.arbre(png);
+    }
+
+    @Benchmark
+    public int compressPhi() {
+        Projet.compressPhi(arbre, phi);
+        return Projet.getLeafCount(arbre);
+    }
+}
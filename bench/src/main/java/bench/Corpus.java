@@ -0,0 +1,36 @@
+package bench;
+
+import java.io.File;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Image du corpus pngs/ sur laquelle porte un benchmark
+ * Le dossier du corpus est donne par la propriete systeme "corpus" (par defaut "pngs",
+ * c'est-a-dire un lancement depuis la racine du projet).
+ */
+@State(Scope.Benchmark)
+public class Corpus {
+    @Param({"2.png", "4.png", "8.png", "16.png", "i.png", "32-tux.png", "64-tuxette.png",
+            "128-gnu.png", "256-trash.png", "256-tux.png", "512-books.png", "1024-cube.png"})
+    public String image;
+
+    // ImagePNG chargee une fois par essai
+    protected Object png;
+
+    @Setup(Level.Trial)
+    public void chargerImage() {
+        File fichier = new File(System.getProperty("corpus", "pngs"), image);
+        png = Projet.image(fichier.getPath());
+        preparer();
+    }
+
+    // Preparation propre a chaque benchmark, une fois l'image chargee
+    // (JMH ne garantit pas l'ordre des @Setup d'une classe et de ses sous-classes)
+    protected void preparer() {
+    }
+}
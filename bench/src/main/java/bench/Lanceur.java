@@ -0,0 +1,80 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Point d'entree du jar de benchmarks
+ * Accepte les options habituelles de JMH (filtre, -p image=..., -f, -wi, -i, ...)
+ * et ajoute le profileur GC (taux d'allocation) si aucun profileur n'est demande.
+ * -t accepte aussi une liste (-t 1,2,4,8): un lancement par nombre de threads,
+ * puis un resume commun.
+ * Exemple, depuis la racine du projet:
+ *   java -jar bench/target/benchmarks.jar Compression -p image=256-tux.png
+ */
+public class Lanceur {
+    public static void main(String[] args) throws Exception {
+        // JMH n'accepte qu'un nombre de threads: la liste est retiree des arguments
+        List<String> arguments = new ArrayList<>();
+        List<Integer> threads = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-t") && i + 1 < args.length && args[i + 1].contains(",")) {
+                for (String n : args[++i].split(",")) {
+                    threads.add(Integer.parseInt(n.trim()));
+                }
+            } else {
+                arguments.add(args[i]);
+            }
+        }
+
+        CommandLineOptions ligne = new CommandLineOptions(arguments.toArray(new String[0]));
+        if (ligne.shouldHelp() || ligne.shouldList() || ligne.shouldListWithParams()
+                || ligne.shouldListProfilers() || ligne.shouldListResultFormats()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(ligne);
+        if (ligne.getProfilers().isEmpty()) {
+            options.addProfiler(GCProfiler.class);
+        }
+        if (threads.isEmpty()) {
+            new Runner(options.build()).run();
+            return;
+        }
+
+        List<RunResult> resultats = new ArrayList<>();
+        for (int n : threads) {
+            Collection<RunResult> r = new Runner(options.threads(n).build()).run();
+            resultats.addAll(r);
+        }
+        resumer(resultats);
+    }
+
+    // Une ligne par benchmark, parametres et nombre de threads
+    private static void resumer(List<RunResult> resultats) {
+        System.out.println();
+        System.out.println("Resume par nombre de threads:");
+        for (RunResult r : resultats) {
+            BenchmarkParams p = r.getParams();
+            StringBuilder parametres = new StringBuilder();
+            for (String cle : p.getParamsKeys()) {
+                parametres.append(cle).append('=').append(p.getParam(cle)).append(' ');
+            }
+            Result<?> score = r.getPrimaryResult();
+            System.out.println(String.format(Locale.ROOT, "%-55s %-40s %3d threads %12.3f %s",
+                    p.getBenchmark(), parametres.toString().trim(), p.getThreads(),
+                    score.getScore(), score.getScoreUnit()));
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package bench;
+
+import java.util.Random;
+
+/**
+ * Palette des feuilles d'une image du corpus, rangee dans un AVL,
+ * et couleurs de requete tirees une fois pour toutes (graine fixe)
+ */
+public abstract class Palette extends Corpus {
+    static final int OPERATIONS = 1024;
+
+    protected Object arbre;
+    protected Object avl;
+    protected final int[] nouvelles = new int[OPERATIONS];  // couleurs aleatoires (rarement dans la palette)
+    protected final int[] presentes = new int[OPERATIONS];  // couleurs tirees dans la palette (avec repetitions)
+
+    @Override
+    protected void preparer() {
+        arbre = Projet.arbre(png);
+        avl = Projet.avl(arbre);
+        int[] palette = Projet.couleurs(avl);
+        Random hasard = new Random(42);
+        for (int i = 0; i < OPERATIONS; i++) {
+            nouvelles[i] = hasard.nextInt(1 << 24);
+            presentes[i] = palette[hasard.nextInt(palette.length)];
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Contention sur une palette partagee par tous les threads du benchmark
+ * structure=concurrente: PaletteConcurrente (lectures sans verrou, ecritures optimistes par bande);
+ * structure=avl: l'AVL de la palette derriere un verrou global (synchronized), seul partage sur possible.
+ * Le nombre de threads se choisit a la ligne de commande, une ou plusieurs valeurs:
+ *   java -jar bench/target/benchmarks.jar PaletteConcurrente -p image=256-tux.png -t 1,2,4,8,16,32
+ * Chaque ecriture ajoute une couleur propre au thread puis la retire: la palette garde sa taille.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaletteConcurrenteBenchmark extends Palette {
+    // une ecriture (ajout puis retrait) toutes les ECRITURE recherches dans le benchmark mixte
+    static final int ECRITURE = 16;
+
+    @Param({"concurrente", "avl"})
+    public String structure;
+
+    private Object palette;
+    private boolean concurrente;
+
+    @Override
+    protected void preparer() {
+        super.preparer();
+        concurrente = structure.equals("concurrente");
+        palette = concurrente ? Projet.paletteConcurrente(Projet.couleurs(avl)) : avl;
+    }
+
+    // Couleurs ajoutees et retirees par un thread (graine differente pour chaque thread)
+    @State(Scope.Thread)
+    public static class Ecritures {
+        private static final AtomicInteger GRAINES = new AtomicInteger(42);
+        final int[] couleurs = new int[OPERATIONS];
+
+        @Setup(Level.Trial)
+        public void tirer() {
+            Random hasard = new Random(GRAINES.incrementAndGet());
+            for (int i = 0; i < OPERATIONS; i++) {
+                couleurs[i] = hasard.nextInt(1 << 24);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public void search(Blackhole trou) {
+        for (int rgb : presentes) {
+            trou.consume(chercher(rgb));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2 * OPERATIONS)
+    public void addRemove(Ecritures ecritures) {
+        for (int rgb : ecritures.couleurs) {
+            ajouter(rgb);
+            retirer(rgb);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public void mixte(Ecritures ecritures, Blackhole trou) {
+        for (int i = 0; i < OPERATIONS; i++) {
+            if (i % ECRITURE == 0) {
+                ajouter(ecritures.couleurs[i]);
+                retirer(ecritures.couleurs[i]);
+            } else {
+                trou.consume(chercher(presentes[i]));
+            }
+        }
+    }
+
+    private boolean chercher(int rgb) {
+        if (concurrente) return Projet.paletteSearch(palette, rgb);
+        synchronized (palette) {
+            return Projet.searchAVL(palette, rgb);
+        }
+    }
+
+    private void ajouter(int rgb) {
+        if (concurrente) {
+            Projet.paletteAdd(palette, rgb);
+        } else {
+            synchronized (palette) {
+                Projet.add(palette, rgb);
+            }
+        }
+    }
+
+    private void retirer(int rgb) {
+        if (concurrente) {
+            Projet.paletteRemove(palette, rgb);
+        } else {
+            synchronized (palette) {
+                Projet.remove(palette, rgb);
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Acces aux classes du projet depuis les benchmarks
+ * Les classes du projet sont dans le paquetage par defaut, que javac ne permet pas d'importer
+ * depuis un paquetage nomme, et JMH refuse les benchmarks du paquetage par defaut: les appels
+ * passent donc par des MethodHandle constants (champs static final), que le JIT integre
+ * comme des appels directs.
+ */
+final class Projet {
+    private static final MethodHandle IMAGE, ARBRE, COMPRESS_LAMBDA, COMPRESS_PHI, TO_PNG, LEAF_COUNT, EQM;
+    private static final MethodHandle AVL_ARBRE, AVL_ADD, AVL_REMOVE, AVL_SEARCH, AVL_COULEURS;
+    private static final MethodHandle PALETTE, PALETTE_ADD, PALETTE_REMOVE, PALETTE_SEARCH;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> image = Class.forName("ImagePNG");
+            Class<?> arbre = Class.forName("RQuadtree");
+            Class<?> avl = Class.forName("AVL");
+            Class<?> palette = Class.forName("PaletteConcurrente");
+            MethodType objet = MethodType.methodType(Object.class, Object.class);
+            MethodType entier = MethodType.methodType(void.class, Object.class, int.class);
+
+            IMAGE = lookup.findConstructor(image, MethodType.methodType(void.class, String.class))
+                          .asType(MethodType.methodType(Object.class, String.class));
+            ARBRE = lookup.findConstructor(arbre, MethodType.methodType(void.class, image)).asType(objet);
+            COMPRESS_LAMBDA = lookup.findVirtual(arbre, "compressLambda", MethodType.methodType(void.class, int.class)).asType(entier);
+            COMPRESS_PHI = lookup.findVirtual(arbre, "compressPhi", MethodType.methodType(void.class, int.class)).asType(entier);
+            TO_PNG = lookup.findVirtual(arbre, "toPNG", MethodType.methodType(image)).asType(objet);
+            LEAF_COUNT = lookup.findVirtual(arbre, "getLeafCount", MethodType.methodType(int.class))
+                               .asType(MethodType.methodType(int.class, Object.class));
+            EQM = lookup.findStatic(image, "computeEQM", MethodType.methodType(double.class, image, image))
+                        .asType(MethodType.methodType(double.class, Object.class, Object.class));
+            AVL_ARBRE = lookup.findConstructor(avl, MethodType.methodType(void.class, arbre)).asType(objet);
+            AVL_ADD = lookup.findVirtual(avl, "add", MethodType.methodType(void.class, int.class)).asType(entier);
+            AVL_REMOVE = lookup.findVirtual(avl, "remove", MethodType.methodType(void.class, int.class)).asType(entier);
+            AVL_SEARCH = lookup.findVirtual(avl, "searchAVL", MethodType.methodType(boolean.class, int.class))
+                               .asType(MethodType.methodType(boolean.class, Object.class, int.class));
+            AVL_COULEURS = lookup.findVirtual(avl, "couleurs", MethodType.methodType(int[].class))
+                                 .asType(MethodType.methodType(int[].class, Object.class));
+            PALETTE = lookup.findConstructor(palette, MethodType.methodType(void.class, int[].class))
+                            .asType(MethodType.methodType(Object.class, int[].class));
+            PALETTE_ADD = lookup.findVirtual(palette, "add", MethodType.methodType(void.class, int.class)).asType(entier);
+            PALETTE_REMOVE = lookup.findVirtual(palette, "remove", MethodType.methodType(void.class, int.class)).asType(entier);
+            PALETTE_SEARCH = lookup.findVirtual(palette, "search", MethodType.methodType(boolean.class, int.class))
+                                   .asType(MethodType.methodType(boolean.class, Object.class, int.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Projet() {
+    }
+
+    static Object image(String fichier) {
+        try {
+            return (Object) IMAGE.invokeExact(fichier);
+        } catch (Throwable t) {
+            throw propager(t);
+        }
+    }
+
+    static Object arbre(Object image) {
+        try {
+            return (Object) ARBRE.invokeExact(image);
+        } catch (Throwable t) {
+            throw propager(t);
+        }
+    }
+
+    static void compressLambda(Object arbre, int lambda) {
+        try {
+            COMPRESS_LAMBDA.invokeExact(arbre, lambda);
+        } catch (Throwable t) {
+            throw propager(t);
+        }
+    }
+
+    static void compressPhi(Object arbre, int phi) {
+        try {
+            COMPRESS_PHI.invokeExact(arbre, phi);
+        } catch (Throwable t) {
+            throw propager(t);
+        }
+    }
+
+    static Object toPNG(Object arbre) {
+        try {
+            return (Object) TO_PNG.invokeExact(arbre);
+        } catch (Throwable t) {
+            throw propager(t);
+        }
+    }
+
+    static int getLeafCount(Object arbre) {
+        try {
+            return (int) LEAF_COUNT.invokeExact(arbre);
+        } catch (Throwable t) {
+            throw propager(t);
+        }
+    }
+
+    static double computeEQM(Object ref, Object cpy) {
+        try {
+            return (double) EQM.invokeExact(ref, cpy);
+        } catch (Throwable t) {
+            throw propager(t);
+        }
+    }
+
+    static Object avl(Object arbre) {
+        try {
+            return (Object) AVL_ARBRE.invokeExact(arbre);
+        } catch (Throwable t) {
+            throw propager(t);
+        }
+    }
+
+    static void add(Object avl, int rgb) {
+        try {
+            AVL_ADD.invokeExact(avl, rgb);
+        } catch (Throwable t) {
+            throw propager(t);
+        }
+    }
+
+    static void remove(Object avl, int rgb) {
+        try {
+            AVL_REMOVE.invokeExact(avl, rgb);
+        } catch (Throwable t) {
+            throw propager(t);
+        }
+    }
+
+    static boolean searchAVL(Object avl, int rgb) {
+        try {
+            return (boolean) AVL_SEARCH.invokeExact(avl, rgb);
+        } catch (Throwable t) {
+            throw propager(t);
+        }
+    }
+
+    static int[] couleurs(Object avl) {
+        try {
+            return (int[]) AVL_COULEURS.invokeExact(avl);
+        } catch (Throwable t) {
+            throw propager(t);
+        }
+    }
+
+    static Object paletteConcurrente(int[] couleurs) {
+        try {
+            return (Object) PALETTE.invokeExact(couleurs);
+        } catch (Throwable t) {
+            throw propager(t);
+        }
+    }
+
+    static void paletteAdd(Object palette, int rgb) {
+        try {
+            PALETTE_ADD.invokeExact(palette, rgb);
+        } catch (Throwable t) {
+            throw propager(t);
+        }
+    }
+
+    static void paletteRemove(Object palette, int rgb) {
+        try {
+            PALETTE_REMOVE.invokeExact(palette, rgb);
+        } catch (Throwable t) {
+            throw propager(t);
+        }
+    }
+
+    static boolean paletteSearch(Object palette, int rgb) {
+        try {
+            return (boolean) PALETTE_SEARCH.invokeExact(palette, rgb);
+        } catch (Throwable t) {
+            throw propager(t);
+        }
+    }
+
+    private static RuntimeException propager(Throwable t) {
+        if (t instanceof RuntimeException) return (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+        return new RuntimeException(t);
+    }
+}
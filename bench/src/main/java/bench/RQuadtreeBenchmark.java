@@ -0,0 +1,51 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Construction, rendu, serialisation texte et mesure de qualite
+ * sur l'arbre non compresse de chaque image du corpus
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RQuadtreeBenchmark extends Corpus {
+    private Object arbre;
+    private Object rendu;
+
+    @Override
+    protected void preparer() {
+        arbre = Projet.arbre(png);
+        rendu = Projet.toPNG(arbre);
+    }
+
+    @Benchmark
+    public Object construction() {
+        return Projet.arbre(png);
+    }
+
+    @Benchmark
+    public Object toPNG() {
+        return Projet.toPNG(arbre);
+    }
+
+    @Benchmark
+    public String toStringArbre() {
+        return arbre.toString();
+    }
+
+    @Benchmark
+    public double computeEQM() {
+        return Projet.computeEQM(png, rendu);
+    }
+}
@@ -1,5 +1,7 @@
 import java.awt.Color;
-import java.util.List;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
 /*
  * Classe representant un arbre AVL pour gerer la palette des couleurs 
  * Arbre binaire de recherche auto equilibré 
@@ -8,11 +10,11 @@ import java.util.List;
 public class AVL {
    // Classe interne pour representer un noeud de l'arbre AVL
    private class Node{
-        Color color;
+        int color;          // couleur RGB compactee (0xRRGGBB)
         Node left, right;   // Enfant gauche et droit 
         int hauteur;        // Hauteur du sous-arbre (pour l'equilibrage)
 
-        Node(Color c){
+        Node(int c){
             this.color=c;
             this.left = this.right = null;
             this.hauteur = 1; 
@@ -24,34 +26,37 @@ public class AVL {
   
    /**
     * Constructeur d'un AVL a partir d'un image
-    * Parcourir tous les pixels et ajoute les couleurs uniques 
+    * Lit tous les pixels en un bloc, trie et dedoublonne les couleurs,
+    * puis construit directement un AVL parfaitement equilibre
+    * Complexite: O(n^2 log n) pour le tri des n^2 pixels, O(k) pour la construction
     * @param img
     */
    public AVL(ImagePNG img){
-        this.root = null;
-        for(int i=0; i<img.height(); i++){
-            for(int j=0; j<img.width(); j++){
-                // ajout de chaque pixel 
-                add(img.getPixel(i, j));
-            }
-        }
+        int[] pixels = img.getRGB(0, 0, img.width(), img.height(), null);
+        this.root = construireEquilibre(pixels, trierSansDoublons(pixels));
    }
 
    /**
      * Constructeur: construit l'AVL à partir d'un RQuadtree
-     * Parcourir l'arbre et ajoute les couleurs des feuilles uniquement
-     * Complexite: O(n log k) avec  n est le nombre de noeuds et k le nombre de couleurs
+     * Recupere les couleurs des feuilles, les trie et les dedoublonne,
+     * puis construit directement un AVL parfaitement equilibre
+     * Complexite: O(f log f) pour le tri des f feuilles, O(k) pour la construction (k couleurs)
      * @param tree Le RQuadtree source 
      */
     public AVL(RQuadtree tree) {
-        this.root = null;
         // Recuperer toutes les couleurs des feuilles 
-        List<Color> colors = tree.nbCouleur();
+        int[] colors = tree.couleursFeuilles();
+        this.root = construireEquilibre(colors, trierSansDoublons(colors));
+    }
 
-        // Ajouter chaque couleur a L'AVL
-        for(Color col: colors){
-            add(col);
-        }
+    /**
+     * Constructeur a partir d'une liste de couleurs compactees (doublons permis)
+     * Complexite: O(k log k) pour le tri, O(k) pour la construction
+     * @param colors couleurs (0xRRGGBB, alpha ignore), le tableau n'est pas modifie
+     */
+    public AVL(int[] colors) {
+        int[] tri = colors.clone();
+        this.root = construireEquilibre(tri, trierSansDoublons(tri));
     }
 
 
@@ -60,7 +65,15 @@ public class AVL {
      * @param col
      */
     public void remove(Color col){
-        root = removeRecursive(this.root, col);
+        remove(col.getRGB());
+    }
+
+    /**
+     * Suppression a partir d'une couleur compactee (0xRRGGBB, alpha ignore)
+     * @param rgb
+     */
+    public void remove(int rgb){
+        root = removeRecursive(this.root, rgb & 0xFFFFFF);
     }
 
     /**
@@ -68,7 +81,15 @@ public class AVL {
      * @param col
      */
     public void add(Color col){
-        root = addRecursivement(this.root, col);
+        add(col.getRGB());
+    }
+
+    /**
+     * Ajout a partir d'une couleur compactee (0xRRGGBB, alpha ignore)
+     * @param rgb
+     */
+    public void add(int rgb){
+        root = addRecursivement(this.root, rgb & 0xFFFFFF);
     }
 
     /**
@@ -77,12 +98,139 @@ public class AVL {
      * @return true si Couleur est retrouve dans l'arbre false sinon
      */
     public boolean searchAVL(Color col){
-        return searchRecAVL(this.root, col);
+        return searchAVL(col.getRGB());
+    }
+
+    /**
+     * Recherche a partir d'une couleur compactee (0xRRGGBB, alpha ignore)
+     * @param rgb
+     * @return true si Couleur est retrouve dans l'arbre false sinon
+     */
+    public boolean searchAVL(int rgb){
+        return searchRecAVL(this.root, rgb & 0xFFFFFF);
     }
 
     
     public String toString() {
-        return toStringRecursive(root);
+        StringBuilder sb = new StringBuilder();
+        try {
+            writeTo(sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // impossible avec un StringBuilder
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Ecrit la representation parenthesee (identique a toString) au fil de l'eau,
+     * sans construire de chaines intermediaires
+     * Complexite: O(k) avec k le nombre de couleurs
+     * @param out destination (de preference bufferisee, par exemple un BufferedWriter)
+     * @throws IOException
+     */
+    public void writeTo(Appendable out) throws IOException {
+        writeToRecursive(root, out);
+    }
+
+    /**
+     * Couleurs de la palette dans l'ordre croissant (parcours infixe)
+     * Complexite: O(k)
+     * @return les couleurs compactees (0xRRGGBB)
+     */
+    public int[] couleurs(){
+        int[] colors = new int[compterNoeuds(root)];
+        remplirInfixe(root, colors, 0);
+        return colors;
+    }
+
+    /**
+     * Couleur de la palette la plus proche (distance euclidienne sur R, G, B)
+     * L'ordre de l'AVL etant d'abord celui du rouge, un sous-arbre dont les rouges sont
+     * trop loin de la cible est ignore (separation et evaluation)
+     * Complexite: O(log k) en pratique, O(k) au pire
+     * @param rgb couleur compactee (0xRRGGBB, alpha ignore)
+     * @return la couleur de la palette la plus proche (la plus petite en cas d'egalite)
+     * @throws IllegalStateException si la palette est vide
+     */
+    public int plusProche(int rgb){
+        return plusProche(rgb, false);
+    }
+
+    public Color plusProche(Color col){
+        return new Color(plusProche(col.getRGB()));
+    }
+
+    /**
+     * Couleur de la palette de luminance la plus proche (L = 0.2126*R + 0.7152*G + 0.0722*B)
+     * @param rgb couleur compactee (0xRRGGBB, alpha ignore)
+     * @return la couleur de la palette la plus proche (la plus petite en cas d'egalite)
+     * @throws IllegalStateException si la palette est vide
+     */
+    public int plusProcheLuminance(int rgb){
+        return plusProche(rgb, true);
+    }
+
+    private int plusProche(int rgb, boolean parLuminance){
+        if (root == null) throw new IllegalStateException("Palette vide");
+        Recherche recherche = new Recherche(rgb & 0xFFFFFF, parLuminance);
+        recherche.parcourir(root, 0, 255);
+        return recherche.meilleure;
+    }
+
+    // Recherche du plus proche voisin: meilleure couleur trouvee et sa distance
+    private class Recherche {
+        final int cible;
+        final boolean parLuminance;
+        final int rouge;
+        final double lumCible;
+        int meilleure;
+        double distance = Double.POSITIVE_INFINITY;
+
+        Recherche(int cible, boolean parLuminance){
+            this.cible = cible;
+            this.parLuminance = parLuminance;
+            this.rouge = (cible >> 16) & 0xFF;
+            this.lumCible = luminance(cible);
+        }
+
+        /**
+         * Parcours d'un sous-arbre dont les rouges sont dans [rougeMin, rougeMax]
+         * (la moitie du cote de la cible d'abord)
+         */
+        void parcourir(Node node, int rougeMin, int rougeMax){
+            if (node == null || borne(rougeMin, rougeMax) > distance) return;
+            double d = distance(node.color);
+            if (d < distance || (d == distance && node.color < meilleure)) {
+                distance = d;
+                meilleure = node.color;
+            }
+            int r = (node.color >> 16) & 0xFF;
+            if (cible < node.color) {
+                parcourir(node.left, rougeMin, r);
+                parcourir(node.right, r, rougeMax);
+            } else {
+                parcourir(node.right, r, rougeMax);
+                parcourir(node.left, rougeMin, r);
+            }
+        }
+
+        private double distance(int c){
+            if (parLuminance) return Math.abs(luminance(c) - lumCible);
+            int dr = ((c >> 16) & 0xFF) - rouge;
+            int dv = ((c >> 8) & 0xFF) - ((cible >> 8) & 0xFF);
+            int db = (c & 0xFF) - (cible & 0xFF);
+            return dr * dr + dv * dv + db * db;
+        }
+
+        // Distance minimale a une couleur dont le rouge est dans [rougeMin, rougeMax]
+        private double borne(int rougeMin, int rougeMax){
+            if (parLuminance) {
+                double lumMin = 0.2126 * rougeMin, lumMax = 0.2126 * rougeMax + (0.7152 + 0.0722) * 255;
+                return Math.max(0, Math.max(lumMin - lumCible, lumCible - lumMax));
+            }
+            int ecart = Math.max(0, Math.max(rougeMin - rouge, rouge - rougeMax));
+            return ecart * ecart;
+        }
     }
 
     // *** Fonctions recursives associees aux fonctionnalités des AVLs ie Search, Add et Remove ***
@@ -93,13 +241,13 @@ public class AVL {
      * @param color
      * @return  true si Couleur est retrouve dans noeud false sinon
      */
-    private boolean searchRecAVL(Node node, Color color){
+    private boolean searchRecAVL(Node node, int color){
         
         if(node == null) return false ;
         
         int compare =  compareColors(node.color, color);
         if(compare == 0) return true ;
-        else if(compare < 0){
+        else if(compare > 0){
             return searchRecAVL(node.left, color);
         } else {
             return searchRecAVL(node.right, color);
@@ -112,7 +260,7 @@ public class AVL {
      * @param col
      * @return
      */
-    private Node addRecursivement(Node node, Color col){
+    private Node addRecursivement(Node node, int col){
     
         if(node == null) return new Node(col);
         
@@ -140,7 +288,7 @@ public class AVL {
      * @param col
      * @return
      */
-    private Node removeRecursive(Node node, Color col){
+    private Node removeRecursive(Node node, int col){
         
         if(node == null) return null;
         int compare = compareColors(col, node.color);
@@ -169,25 +317,83 @@ public class AVL {
     }
 
     /**
-     * 
+     * Ecriture recursive: "()" pour un sous-arbre vide, la couleur seule pour un noeud sans enfant,
+     * "(gauche couleur droite)" sinon
      * @param node
-     * @return
+     * @param out
      */
-    private String toStringRecursive(Node node) {
-        if (node == null) return "()";
+    private void writeToRecursive(Node node, Appendable out) throws IOException {
+        if (node == null) {
+            out.append("()");
+            return;
+        }
         if (node.left == null && node.right == null) {
-            return ImagePNG.colorToHex(node.color);
+            ImagePNG.appendHex(out, node.color);
+            return;
         }
-        String left = toStringRecursive(node.left);
-        String right = toStringRecursive(node.right);
-        return "(" + (isEmptyString(left) ? "" : left + " ") + 
-            ImagePNG.colorToHex(node.color) + 
-            (isEmptyString(right) ? "" : " " + right) + ")";
+        out.append('(');
+        writeToRecursive(node.left, out);
+        out.append(' ');
+        ImagePNG.appendHex(out, node.color);
+        out.append(' ');
+        writeToRecursive(node.right, out);
+        out.append(')');
     }
     
+    private int compterNoeuds(Node node){
+        return (node == null) ? 0 : 1 + compterNoeuds(node.left) + compterNoeuds(node.right);
+    }
+
+    private int remplirInfixe(Node node, int[] colors, int i){
+        if(node == null) return i;
+        i = remplirInfixe(node.left, colors, i);
+        colors[i++] = node.color;
+        return remplirInfixe(node.right, colors, i);
+    }
+
+    /**
+     * Construit un AVL parfaitement equilibre a partir des k premieres couleurs (triees, sans doublon)
+     * Complexite: O(k)
+     * @param tri
+     * @param k
+     * @return la racine
+     */
+    private Node construireEquilibre(int[] tri, int k){
+        return construireEquilibre(tri, 0, k - 1);
+    }
+
+    private Node construireEquilibre(int[] tri, int debut, int fin){
+        if(debut > fin) return null;
+        int milieu = (debut + fin) >>> 1;
+        Node node = new Node(tri[milieu]);
+        node.left = construireEquilibre(tri, debut, milieu - 1);
+        node.right = construireEquilibre(tri, milieu + 1, fin);
+        node.hauteur = 1 + Math.max(getHauteur(node.left), getHauteur(node.right));
+        return node;
+    }
+
     // -------------- Fonctions utlitaires------------------------------------
 
-    private Node RebalancerAVL(Node node, Color col){
+    /**
+     * Trie les couleurs (alpha ignore) et supprime les doublons sur place
+     * @param colors
+     * @return le nombre k de couleurs distinctes, rangees dans colors[0..k-1]
+     */
+    private static int trierSansDoublons(int[] colors){
+        for(int i = 0; i < colors.length; i++){
+            colors[i] &= 0xFFFFFF;
+        }
+        Arrays.sort(colors);
+        int k = 0;
+        for(int i = 0; i < colors.length; i++){
+            if(k == 0 || colors[i] != colors[k - 1]){
+                colors[k++] = colors[i];
+            }
+        }
+        return k;
+    }
+
+    private Node RebalancerAVL(Node node, int col){
     if(node == null) return null;
     
     int balance = getBalance(node);
@@ -253,9 +459,22 @@ public class AVL {
     * @return < 0 si col1 < col2, 0 si égales, > 0 si col1 > col2
     */
    public int compareColors(Color col1, Color col2){
-        if(col1.getRed() != col2.getRed()) return col1.getRed() - col2.getRed() ;
-        if(col1.getGreen() != col2.getGreen()) return col1.getGreen() - col2.getGreen();
-        return col1.getBlue() - col2.getBlue();
+        return compareColors(col1.getRGB(), col2.getRGB());
+    }
+
+   /**
+    * Compare deux couleurs compactees: l'ordre (R, G, B) est celui des entiers 0xRRGGBB
+    * @param col1
+    * @param col2
+    * @return < 0 si col1 < col2, 0 si égales, > 0 si col1 > col2
+    */
+   public int compareColors(int col1, int col2){
+        return Integer.compare(col1 & 0xFFFFFF, col2 & 0xFFFFFF);
+    }
+
+    // L = 0.2126*R + 0.7152*G + 0.0722*B (comme RQuadtree)
+    private static double luminance(int rgb){
+        return 0.2126*((rgb >> 16) & 0xFF) + 0.7152*((rgb >> 8) & 0xFF) + 0.0722*(rgb & 0xFF);
     }
 
     private int getHauteur(Node node){
@@ -272,8 +491,4 @@ public class AVL {
         }
     return node;
     }
-
-    private boolean isEmptyString(String s){
-        return (s == null || s.length() ==0 );
-    }   
 }
@@ -0,0 +1,204 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Ecriture d'une image PNG a palette (type de couleur 3) a partir d'indices de palette
+ * Profondeur 1, 2, 4 ou 8 bits selon le nombre de couleurs (au plus 256).
+ * Le filtre de chaque ligne est choisi parmi None, Sub et Up: une ligne identique a la
+ * precedente (cas courant sous les blocs des feuilles) prend Up, qui ne donne que des zeros;
+ * sinon le filtre de plus petite somme des valeurs absolues (octets signes) est garde.
+ * Les donnees compressees sont decoupees en chunks IDAT au fil de l'eau.
+ */
+class EncodeurPNG {
+    static final int MAX_COULEURS = 256;
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int TAILLE_IDAT = 1 << 16;
+
+    // filtres PNG utilises
+    private static final int NONE = 0, SUB = 1, UP = 2;
+
+    private EncodeurPNG() {
+    }
+
+    /**
+     * Ecrit l'image
+     * @param out destination (le flux n'est pas ferme)
+     * @param largeur
+     * @param hauteur
+     * @param palette couleurs compactees (0xRRGGBB), au plus 256
+     * @param indices indice de palette de chaque pixel, ligne par ligne (indice y*largeur+x)
+     * @param niveau niveau de compression de Deflater (0 a 9, ou Deflater.DEFAULT_COMPRESSION)
+     * @throws IOException
+     */
+    static void ecrire(OutputStream out, int largeur, int hauteur, int[] palette, byte[] indices, int niveau)
+            throws IOException {
+        if (palette.length == 0 || palette.length > MAX_COULEURS) {
+            throw new IllegalArgumentException("Palette de " + palette.length + " couleurs (1 a 256)");
+        }
+        int bits = (palette.length <= 2) ? 1 : (palette.length <= 4) ? 2 : (palette.length <= 16) ? 4 : 8;
+
+        DataOutputStream flux = new DataOutputStream(out);
+        flux.write(SIGNATURE);
+
+        byte[] ihdr = new byte[13];
+        ecrireInt(ihdr, 0, largeur);
+        ecrireInt(ihdr, 4, hauteur);
+        ihdr[8] = (byte) bits;
+        ihdr[9] = 3;    // couleurs indexees; compression, filtrage et entrelacement standard (0)
+        ecrireChunk(flux, "IHDR", ihdr, ihdr.length);
+
+        byte[] plte = new byte[3 * palette.length];
+        for (int i = 0; i < palette.length; i++) {
+            plte[3 * i] = (byte) (palette[i] >> 16);
+            plte[3 * i + 1] = (byte) (palette[i] >> 8);
+            plte[3 * i + 2] = (byte) palette[i];
+        }
+        ecrireChunk(flux, "PLTE", plte, plte.length);
+
+        Deflater deflater = new Deflater(niveau);
+        try (DeflaterOutputStream idat = new DeflaterOutputStream(new FluxIDAT(flux), deflater, TAILLE_IDAT)) {
+            int octetsParLigne = (largeur * bits + 7) / 8;
+            byte[] precedente = new byte[octetsParLigne];
+            byte[] ligne = new byte[octetsParLigne];
+            byte[] filtree = new byte[octetsParLigne + 1];
+            byte[] essai = new byte[octetsParLigne + 1];
+            for (int y = 0; y < hauteur; y++) {
+                empaqueter(indices, y * largeur, largeur, bits, ligne);
+                if (y > 0 && Arrays.equals(ligne, precedente)) {
+                    // ligne repetee: Up ne donne que des zeros
+                    Arrays.fill(filtree, (byte) 0);
+                    filtree[0] = UP;
+                } else {
+                    filtrer(NONE, ligne, precedente, filtree);
+                    long meilleur = somme(filtree);
+                    for (int filtre = SUB; filtre <= UP && meilleur > 0; filtre++) {
+                        if (filtre == UP && y == 0) break;  // Up sur la premiere ligne vaut None
+                        filtrer(filtre, ligne, precedente, essai);
+                        long s = somme(essai);
+                        if (s < meilleur) {
+                            meilleur = s;
+                            byte[] t = filtree;
+                            filtree = essai;
+                            essai = t;
+                        }
+                    }
+                }
+                idat.write(filtree);
+                byte[] t = precedente;
+                precedente = ligne;
+                ligne = t;
+            }
+        } finally {
+            deflater.end();
+        }
+
+        ecrireChunk(flux, "IEND", new byte[0], 0);
+        flux.flush();
+    }
+
+    // -------------- Fonctions utlitaires------------------------------------
+
+    // Range largeur indices de bits bits chacun dans une ligne d'octets (poids forts d'abord)
+    private static void empaqueter(byte[] indices, int debut, int largeur, int bits, byte[] ligne) {
+        if (bits == 8) {
+            System.arraycopy(indices, debut, ligne, 0, largeur);
+            return;
+        }
+        Arrays.fill(ligne, (byte) 0);
+        int parOctet = 8 / bits;
+        for (int x = 0; x < largeur; x++) {
+            int decalage = 8 - bits * (x % parOctet + 1);
+            ligne[x / parOctet] |= (byte) ((indices[debut + x] & 0xFF) << decalage);
+        }
+    }
+
+    // Applique un filtre a la ligne (un octet par pixel au plus: le voisin de gauche est l'octet precedent)
+    private static void filtrer(int filtre, byte[] ligne, byte[] precedente, byte[] sortie) {
+        sortie[0] = (byte) filtre;
+        for (int i = 0; i < ligne.length; i++) {
+            int valeur = ligne[i];
+            if (filtre == SUB) {
+                valeur -= (i > 0) ? ligne[i - 1] : 0;
+            } else if (filtre == UP) {
+                valeur -= precedente[i];
+            }
+            sortie[i + 1] = (byte) valeur;
+        }
+    }
+
+    // Somme des valeurs absolues des octets filtres, vus comme signes (heuristique de la norme PNG)
+    private static long somme(byte[] filtree) {
+        long s = 0;
+        for (int i = 1; i < filtree.length; i++) {
+            s += Math.abs(filtree[i]);
+        }
+        return s;
+    }
+
+    private static void ecrireInt(byte[] b, int i, int v) {
+        b[i] = (byte) (v >>> 24);
+        b[i + 1] = (byte) (v >>> 16);
+        b[i + 2] = (byte) (v >>> 8);
+        b[i + 3] = (byte) v;
+    }
+
+    // Chunk: longueur, type, donnees, CRC du type et des donnees
+    private static void ecrireChunk(DataOutputStream flux, String type, byte[] donnees, int longueur)
+            throws IOException {
+        byte[] t = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(t);
+        crc.update(donnees, 0, longueur);
+        flux.writeInt(longueur);
+        flux.write(t);
+        flux.write(donnees, 0, longueur);
+        flux.writeInt((int) crc.getValue());
+    }
+
+    // Decoupe les donnees compressees en chunks IDAT
+    private static class FluxIDAT extends OutputStream {
+        private final DataOutputStream flux;
+        private final byte[] tampon = new byte[TAILLE_IDAT];
+        private int n;
+
+        FluxIDAT(DataOutputStream flux) {
+            this.flux = flux;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (n == tampon.length) vider();
+            tampon[n++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int debut, int longueur) throws IOException {
+            while (longueur > 0) {
+                if (n == tampon.length) vider();
+                int k = Math.min(longueur, tampon.length - n);
+                System.arraycopy(b, debut, tampon, n, k);
+                n += k;
+                debut += k;
+                longueur -= k;
+            }
+        }
+
+        // fermeture (fin de DeflaterOutputStream): dernier chunk, le flux sous-jacent reste ouvert
+        @Override
+        public void close() throws IOException {
+            vider();
+        }
+
+        private void vider() throws IOException {
+            if (n > 0) ecrireChunk(flux, "IDAT", tampon, n);
+            n = 0;
+        }
+    }
+}
@@ -3,17 +3,34 @@ import java.io.IOException;
 import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
 import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import javax.imageio.ImageIO;
 
 public class ImagePNG
 {
     private BufferedImage img; // the bitmap
+    private int[] pixels;      // backing array of img when it is TYPE_INT_RGB (row-major), null otherwise
 
-    // Default constructor: load image from file
+    // Default constructor: load image from file, normalised to TYPE_INT_RGB (alpha is dropped)
     public ImagePNG(String filename) throws IOException {
         File fic = new File(filename);
-        img = ImageIO.read(fic);
+        BufferedImage lu = ImageIO.read(fic);
+        if (lu == null) throw new IOException("Format d'image non reconnu: " + filename);
+        setImage(toIntRGB(lu));
+    }
+
+    // Constructor from an in-memory image (shared if already TYPE_INT_RGB, converted otherwise)
+    public ImagePNG(BufferedImage image) {
+        setImage(toIntRGB(image));
+    }
+
+    // Constructor of a black width x height image
+    public ImagePNG(int width, int height) {
+        setImage(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
     }
 
     // Copy constructor
@@ -21,7 +38,7 @@ public class ImagePNG
         ColorModel cm = png.img.getColorModel();
         boolean isAlphaPremultiplied = cm.isAlphaPremultiplied();
         WritableRaster raster = png.img.copyData(null);
-        img = new BufferedImage(cm, raster, isAlphaPremultiplied, null);
+        setImage(new BufferedImage(cm, raster, isAlphaPremultiplied, null));
     }
 
     // Clone method
@@ -47,39 +64,212 @@ public class ImagePNG
 
     // Pixel color getter
     public Color getPixel(int x, int y) {
-        return new Color(img.getRGB(x,y));
+        return new Color(getRGB(x,y));
     }
 
     // Pixel color setter
     public void setPixel(int x, int y, Color col) {
-        img.setRGB(x,y,col.getRGB());
+        setRGB(x,y,col.getRGB());
+    }
+
+    // Pixel color getter as a packed int (0xAARRGGBB), no allocation
+    public int getRGB(int x, int y) {
+        if (pixels != null) return 0xFF000000 | pixels[y*img.getWidth() + x];
+        return img.getRGB(x,y);
+    }
+
+    // Pixel color setter from a packed int (0xAARRGGBB or 0xRRGGBB)
+    public void setRGB(int x, int y, int rgb) {
+        if (pixels != null) pixels[y*img.getWidth() + x] = rgb & 0xFFFFFF;
+        else img.setRGB(x,y,rgb);
+    }
+
+    // Bulk getter: the w x h rectangle at (x,y), row-major into buffer (allocated if null or too small)
+    public int[] getRGB(int x, int y, int w, int h, int[] buffer) {
+        if (buffer == null || buffer.length < w*h) buffer = new int[w*h];
+        if (pixels == null) return img.getRGB(x, y, w, h, buffer, 0, w);
+        int width = img.getWidth();
+        for (int j = 0; j < h; j++) {
+            int src = (y+j)*width + x, dst = j*w;
+            for (int i = 0; i < w; i++) {
+                buffer[dst+i] = 0xFF000000 | pixels[src+i];
+            }
+        }
+        return buffer;
+    }
+
+    // Bulk getter: row y into buffer (allocated if null or too small)
+    public int[] getRow(int y, int[] buffer) {
+        return getRGB(0, y, width(), 1, buffer);
+    }
+
+    // Bulk setter: the w x h rectangle at (x,y) from a row-major array
+    public void setRGB(int x, int y, int w, int h, int[] rgb) {
+        if (pixels == null) {
+            img.setRGB(x, y, w, h, rgb, 0, w);
+            return;
+        }
+        int width = img.getWidth();
+        for (int j = 0; j < h; j++) {
+            int dst = (y+j)*width + x, src = j*w;
+            for (int i = 0; i < w; i++) {
+                pixels[dst+i] = rgb[src+i] & 0xFFFFFF;
+            }
+        }
+    }
+
+    // Fills the w x h rectangle at (x,y) with a single color
+    public void fillRect(int x, int y, int w, int h, int rgb) {
+        if (pixels == null) {
+            for (int j = y; j < y+h; j++) for (int i = x; i < x+w; i++) img.setRGB(i, j, rgb);
+            return;
+        }
+        int width = img.getWidth();
+        rgb &= 0xFFFFFF;
+        for (int j = y; j < y+h; j++) {
+            Arrays.fill(pixels, j*width + x, j*width + x + w, rgb);
+        }
+    }
+
+    // Direct access to the row-major 0xRRGGBB backing array (index y*width()+x),
+    // null when the image is not TYPE_INT_RGB. Writes are visible in the image.
+    public int[] getDataBuffer() {
+        return pixels;
     }
 
     // Function (static) that converts a color to an hexadecimal code
     public static String colorToHex(Color col) {
-        return Integer.toHexString(col.getRGB()).substring(2);
+        return rgbToHex(col.getRGB());
+    }
+
+    // Function (static) that converts a packed int color to an hexadecimal code (alpha ignored)
+    public static String rgbToHex(int rgb) {
+        return Integer.toHexString(rgb | 0xFF000000).substring(2);
+    }
+
+    // Function (static) that writes the 6-digit hexadecimal code of a packed int color, without intermediate String
+    public static void appendHex(Appendable out, int rgb) throws IOException {
+        for (int shift = 20; shift >= 0; shift -= 4) {
+            out.append(Character.forDigit((rgb >> shift) & 0xF, 16));
+        }
     }
 
     public static Color hexToColor(String hex) {
         return new Color(Integer.parseUnsignedInt(hex,16));
     }
 
+    // Keeps img and its direct backing array in sync
+    private void setImage(BufferedImage image) {
+        img = image;
+        pixels = (image.getType() == BufferedImage.TYPE_INT_RGB)
+               ? ((DataBufferInt) image.getRaster().getDataBuffer()).getData() : null;
+    }
+
+    // Copy of any image as TYPE_INT_RGB, one row at a time (no alpha compositing)
+    private static BufferedImage toIntRGB(BufferedImage src) {
+        if (src.getType() == BufferedImage.TYPE_INT_RGB) return src;
+        int w = src.getWidth(), h = src.getHeight();
+        BufferedImage dst = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        int[] data = ((DataBufferInt) dst.getRaster().getDataBuffer()).getData();
+        int[] row = new int[w];
+        for (int y = 0; y < h; y++) {
+            src.getRGB(0, y, w, 1, row, 0, w);
+            for (int x = 0; x < w; x++) data[y*w + x] = row[x] & 0xFFFFFF;
+        }
+        return dst;
+    }
+
     // Function (static) that computes a similarity index between images ref and cpy
     // based on the mean squared error measure (see https://fr.wikipedia.org/wiki/Peak_Signal_to_Noise_Ratio)
     public static double computeEQM(ImagePNG ref, ImagePNG cpy) {
-        double w = ref.width(), h = ref.height(),  eqm = 0;
-        for( int x = 0 ; x < w ; x++ ) {
-            for( int y = 0 ; y < h ; y++ ) {
-                // Pixel (x,y) retrieval
-                Color Cref = ref.getPixel(x,y), Ccpy = cpy.getPixel(x,y);
-                // Components normalization
-                double Rref = Cref.getRed()/255.0, Gref = Cref.getGreen()/255.0, Bref = Cref.getBlue()/255.0;
-                double Rcpy = Ccpy.getRed()/255.0, Gcpy = Ccpy.getGreen()/255.0, Bcpy = Ccpy.getBlue()/255.0;
-                // squared error contribution
-                eqm += ((Rref-Rcpy)*(Rref-Rcpy) + (Gref-Gcpy)*(Gref-Gcpy) + (Bref-Bcpy)*(Bref-Bcpy))/(3*h*w);
+        return compare(ref, cpy).eqm; // percentage rounded to the hundredth
+    }
+
+    // Result of the comparison of two images (see compare)
+    public static final class Comparison {
+        public final double mseRed, mseGreen, mseBlue; // per-channel mean squared error (0..255^2)
+        public final double mse;                        // mean of the three channels
+        public final double psnr;                       // peak signal to noise ratio in dB (infinite if identical)
+        public final double eqm;                        // similarity index of computeEQM (percentage)
+
+        private Comparison(long[] squaredErrors, long nbPixels) {
+            mseRed = (double) squaredErrors[0] / nbPixels;
+            mseGreen = (double) squaredErrors[1] / nbPixels;
+            mseBlue = (double) squaredErrors[2] / nbPixels;
+            mse = (mseRed + mseGreen + mseBlue) / 3;
+            psnr = 10 * Math.log10(255.0 * 255.0 / mse);
+            eqm = Math.ceil(10000 * (1 - mse / (255.0 * 255.0))) / 100.0;
+        }
+    }
+
+    // Images with at least this many pixels are compared in parallel, COMPARE_ROWS rows per task
+    private static final int COMPARE_PARALLEL = 1 << 18;
+    private static final int COMPARE_ROWS = 64;
+
+    // Function (static) that compares cpy to ref (over the size of ref) in a single scan:
+    // squared errors are summed exactly as integers, row by row, rows being split across the fork/join pool
+    public static Comparison compare(ImagePNG ref, ImagePNG cpy) {
+        int w = ref.width(), h = ref.height();
+        if (cpy.width() < w || cpy.height() < h) {
+            throw new IllegalArgumentException("Image to compare is smaller than the reference");
+        }
+        long[] squaredErrors = ((long) w*h >= COMPARE_PARALLEL)
+                             ? ForkJoinPool.commonPool().invoke(new CompareRows(ref, cpy, 0, h))
+                             : squaredErrors(ref, cpy, 0, h);
+        return new Comparison(squaredErrors, (long) w*h);
+    }
+
+    // Fork/join task: squared errors of rows [y0, y1)
+    private static class CompareRows extends RecursiveTask<long[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final ImagePNG ref, cpy;
+        private final int y0, y1;
+
+        CompareRows(ImagePNG ref, ImagePNG cpy, int y0, int y1) {
+            this.ref = ref;
+            this.cpy = cpy;
+            this.y0 = y0;
+            this.y1 = y1;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (y1 - y0 <= COMPARE_ROWS) return squaredErrors(ref, cpy, y0, y1);
+            int middle = (y0 + y1) >>> 1;
+            CompareRows top = new CompareRows(ref, cpy, y0, middle);
+            top.fork();
+            long[] bottom = new CompareRows(ref, cpy, middle, y1).compute();
+            long[] sums = top.join();
+            for (int c = 0; c < 3; c++) sums[c] += bottom[c];
+            return sums;
+        }
+    }
+
+    // Sums of squared differences of the red, green and blue components over rows [y0, y1)
+    private static long[] squaredErrors(ImagePNG ref, ImagePNG cpy, int y0, int y1) {
+        int w = ref.width();
+        int[] rowRef = null, rowCpy = null;
+        long red = 0, green = 0, blue = 0;
+        for (int y = y0; y < y1; y++) {
+            // rows are read in place from the backing arrays when available, copied otherwise
+            int[] a, b;
+            int i, j;
+            if (ref.pixels != null) { a = ref.pixels; i = y*w; }
+            else { a = rowRef = ref.getRGB(0, y, w, 1, rowRef); i = 0; }
+            if (cpy.pixels != null) { b = cpy.pixels; j = y*cpy.width(); }
+            else { b = rowCpy = cpy.getRGB(0, y, w, 1, rowCpy); j = 0; }
+            for (int end = i + w; i < end; i++, j++) {
+                int c1 = a[i], c2 = b[j];
+                int dr = ((c1 >> 16) & 0xFF) - ((c2 >> 16) & 0xFF);
+                int dg = ((c1 >> 8) & 0xFF) - ((c2 >> 8) & 0xFF);
+                int db = (c1 & 0xFF) - (c2 & 0xFF);
+                red += dr*dr;
+                green += dg*dg;
+                blue += db*db;
             }
         }
-        return Math.ceil(10000*(1-eqm))/100.0; // percentage rounded to the hundredth
+        return new long[] { red, green, blue };
     }
 
     /**************** À RETIRER DANS VOTRE PROJET *********************/
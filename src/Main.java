@@ -1,7 +1,9 @@
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.PrintWriter;
+import java.io.FileWriter;
 import java.awt.Color;
 import java.util.Scanner;
+import java.util.zip.Deflater;
 
 /**
  * Programme principal avec menu interactif et mode batch
@@ -12,8 +14,11 @@ public class Main {
     private static AVL currentAVL = null;
     private static ImagePNG currentImage = null ; 
     public static void main(String[] args) {
-        // Mode non-interactif
-        if(args.length == 3){
+        // Mode lot: plusieurs fichiers et plusieurs parametres (voir TraitementLot)
+        if(args.length > 0 && args[0].equalsIgnoreCase("lot")){
+            TraitementLot.executer(args);
+        } else if(args.length == 3 || args.length == 4){
+            // Mode non-interactif
             batchMode(args);
         } else {
             // Mode interactif 
@@ -23,18 +28,22 @@ public class Main {
     }
     
     /**
-     * Mode batch: java Main <fichier.png> <Lambda|Phi> <parametre>
+     * Mode batch: java Main <fichier.png> <Lambda|Phi> <parametre> [couleurs]
+     * couleurs: palette reduite a ce nombre de couleurs apres la compression (RQuadtree.quantize);
+     * au plus 256, l'image compressee est ecrite a palette
      */
     private static void batchMode(String[] args) {
         try {
             String inputFile = args[0];
             String method = args[1];
             int param = Integer.parseInt(args[2]);
+            int couleurs = (args.length > 3) ? Integer.parseInt(args[3]) : 0;
             
             System.out.println("=== Mode Batch ===");
             System.out.println("Fichier entré   : " + inputFile);
             System.out.println("Méthode         : " + method);
             System.out.println("Paramètre       : " + param);
+            if (couleurs > 0) System.out.println("Couleurs        : " + couleurs);
             System.out.println();
             
             // 1. Charger l'image
@@ -43,6 +52,7 @@ public class Main {
             
             // 2. Construire le R-Quadtree
             RQuadtree tree = new RQuadtree(img);
+            tree.activerSuiviErreur(img); // EQM mise a jour a chaque elagage
             System.out.println("R-Quadtree construit avec " + tree.getLeafCount() + " feuilles");
             
             // 3. Appliquer la compression
@@ -60,6 +70,13 @@ public class Main {
                 return;
             }
             System.out.println("Nombre de feuilles après compression :" + tree.getLeafCount());
+            System.out.println("Durée de compression : " + tree.getDureeCompression() / 1000000.0 + " ms");
+            if (couleurs > 0) {
+                // 3.1 Reduction de la palette (l'EQM suivie en tient compte)
+                AVL palette = tree.quantize(couleurs);
+                System.out.println("Palette réduite à " + palette.couleurs().length + " couleurs, feuilles : "
+                        + tree.getLeafCount());
+            }
             
             // 4. Générer les fichiers de sortie
             System.out.println("\n---Fichiers générés ---");
@@ -69,35 +86,33 @@ public class Main {
             String methodLower = method.toLowerCase();
 
             // 4.1. Image compressée: <inputFile>.png
+            // (PNG a palette si l'arbre a au plus 256 couleurs, RGB sinon)
             String FichierImgCompressee = nomDeBase + "_" + methodLower + param + ".png";
-            ImagePNG imgCompressee = tree.toPNG();
-            if( imgCompressee != null ){
-                imgCompressee.save(FichierImgCompressee);
-                System.out.println("- Image compressée :    " + FichierImgCompressee);
-            } else {
-                System.err.println(" Erreur ");
-            }
+            boolean indexee = tree.savePNG(FichierImgCompressee, Deflater.DEFAULT_COMPRESSION);
+            System.out.println("- Image compressée :    " + FichierImgCompressee + (indexee ? " (palette)" : ""));
 
             // 4.2. Représentation R-Quadtree: <inputFile>_R.txt
             String FichierTree = nomDeBase + "_" + methodLower + param + "R.txt";
-            PrintWriter ecrireTree = new PrintWriter(FichierTree);
-            ecrireTree.println(tree.toString());
-            ecrireTree.close();
+            try (BufferedWriter ecrireTree = new BufferedWriter(new FileWriter(FichierTree))) {
+                tree.writeTo(ecrireTree);
+                ecrireTree.newLine();
+            }
             System.out.println("- Arbre R-Quadtree :    " + FichierTree);
 
             // 4.3. Représentation AVL: <inputFile>_AVL.txt
             String FichierAVL = nomDeBase + "_" + methodLower + param + "AVL.txt";
             AVL avl = new AVL(tree);
-            PrintWriter ecrireAVL = new PrintWriter(FichierAVL);
-            ecrireAVL.println(avl.toString());
-            ecrireAVL.close();
+            try (BufferedWriter ecrireAVL = new BufferedWriter(new FileWriter(FichierAVL))) {
+                avl.writeTo(ecrireAVL);
+                ecrireAVL.newLine();
+            }
             System.out.println("- Arbre AVL        :    " + FichierAVL);
 
             // 5. Calculer et afficher les metriques de comparaison 
             System.out.println("\n---Metrique de qualité--- ");
 
                 //5.1. Qualité (EQM - Ecart Quadratique Moyen ) Pourcentage de similarite
-                double eqm = ImagePNG.computeEQM(img, imgCompressee);
+                double eqm = tree.currentEQM();
                 System.out.println("Qualité (EQM) " + eqm);
 
                 // 5.2 - Ratio de poids des fichiers PNG
@@ -168,6 +183,9 @@ public class Main {
                     case 12:
                         removeColorFromAVL();
                         break;
+                    case 13:
+                        quantizeTree();
+                        break;
                     case 0:
                         System.out.println("Au revoir!");
                         scanner.close();
@@ -197,6 +215,7 @@ public class Main {
         System.out.println("10. Rechercher une couleur dans AVL");
         System.out.println("11. Ajouter une couleur à AVL");
         System.out.println("12. Supprimer une couleur de AVL");
+        System.out.println("13. Reduire la palette du R-Quadtree (k couleurs)");
         System.out.println("0.  Quitter");
         System.out.print("Votre choix: ");
     }
@@ -219,6 +238,9 @@ public class Main {
         
         currentImage = new ImagePNG(filename);
         currentTree = new RQuadtree(currentImage);
+        currentTree.activerSuiviErreur(currentImage);
+        // mode reversible: chaque compression repart de l'arbre d'origine, sans reconstruction
+        currentTree.activerReversible();
         System.out.println("R-Quadtree construit avec " + currentTree.getLeafCount() + " feuilles");
     }
     
@@ -252,13 +274,12 @@ public class Main {
         scanner.nextLine();
         System.out.print("Nom du fichier de sortie: ");
         String filename = scanner.nextLine();
-        ImagePNG img = currentTree.toPNG();
-        img.save(filename);
-        System.out.println("Image sauvegardée: " + filename);
+        boolean indexee = currentTree.savePNG(filename, Deflater.DEFAULT_COMPRESSION);
+        System.out.println("Image sauvegardée: " + filename + (indexee ? " (palette)" : ""));
         
         // Afficher les métriques si image originale disponible
         if (currentImage != null) {
-            double eqm = ImagePNG.computeEQM(currentImage, img);
+            double eqm = currentTree.currentEQM();
             System.out.println("Qualité (EQM): " + eqm + "%");
         }
     }
@@ -271,9 +292,10 @@ public class Main {
         scanner.nextLine();
         System.out.print("Nom du fichier texte: ");
         String filename = scanner.nextLine();
-        PrintWriter writer = new PrintWriter(filename);
-        writer.println(currentTree.toString());
-        writer.close();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
+            currentTree.writeTo(writer);
+            writer.newLine();
+        }
         System.out.println("Arbre sauvegardé: " + filename);
     }
     
@@ -287,14 +309,18 @@ public class Main {
         ImagePNG img1 = new ImagePNG(file1);
         ImagePNG img2 = new ImagePNG(file2);
         
-        double eqm = ImagePNG.computeEQM(img1, img2);
+        // EQM, PSNR et erreur par canal en un seul passage sur les pixels
+        ImagePNG.Comparison comparaison = ImagePNG.compare(img1, img2);
         
         File f1 = new File(file1);
         File f2 = new File(file2);
         double ratio = Math.ceil(10000.0 * f2.length() / f1.length()) / 100.0;
         
         System.out.println("\nRésultats de comparaison:");
-        System.out.println("  Qualité (EQM): " + eqm + "%");
+        System.out.println("  Qualité (EQM): " + comparaison.eqm + "%");
+        System.out.printf("  PSNR: %.2f dB%n", comparaison.psnr);
+        System.out.printf("  EQM par canal (R, V, B): %.2f, %.2f, %.2f%n",
+                          comparaison.mseRed, comparaison.mseGreen, comparaison.mseBlue);
         System.out.println("  Ratio de poids: " + ratio + "%");
         System.out.println("  Taille fichier 1: " + f1.length() + " octets");
         System.out.println("  Taille fichier 2: " + f2.length() + " octets");
@@ -326,9 +352,10 @@ public class Main {
         scanner.nextLine();
         System.out.print("Nom du fichier texte: ");
         String filename = scanner.nextLine();
-        PrintWriter writer = new PrintWriter(filename);
-        writer.println(currentAVL.toString());
-        writer.close();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
+            currentAVL.writeTo(writer);
+            writer.newLine();
+        }
         System.out.println("AVL sauvegardé: " + filename);
     }
     
@@ -370,4 +397,23 @@ public class Main {
         currentAVL.remove(color);
         System.out.println("Couleur supprimée");
     }
+
+    private static void quantizeTree() {
+        if (currentTree == null) {
+            System.out.println("Veuillez d'abord construire un R-Quadtree (option 1)");
+            return;
+        }
+        System.out.print("Nombre de couleurs: ");
+        int k = scanner.nextInt();
+        boolean reversible = currentTree.estReversible();
+        // la palette devient l'AVL courant (options 9 a 12)
+        currentAVL = currentTree.quantize(k);
+        System.out.println("Palette de " + currentAVL.couleurs().length + " couleurs. Nouvelles feuilles: "
+                + currentTree.getLeafCount());
+        if (reversible) {
+            // quantize quitte le mode reversible: les options 2 et 3 ne repartent plus de l'arbre d'origine
+            System.out.println("Mode reversible termine: les compressions suivantes s'appliquent a l'arbre reduit");
+            System.out.println("(reconstruire l'arbre d'origine avec l'option 1 pour repartir de l'image)");
+        }
+    }
 }
\ No newline at end of file
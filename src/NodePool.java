@@ -0,0 +1,195 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Reserve de noeuds a plat (structure de tableaux) pour le R-Quadtree
+ * Un noeud n'est plus un objet mais un indice dans des tableaux paralleles:
+ *  - enfants : 4 indices par noeud, dans l'ordre NO, NE, SE, SO
+ *  - couleurs: couleur RGB compactee dans un int (0xRRGGBB)
+ *  - feuilles: un bit par noeud (BitSet)
+ * Les cases liberees par un elagage sont recyclees par les allocations suivantes.
+ *
+ * Occupation memoire (JVM 64 bits, references compressees):
+ *  - avant: objet Node (en-tete 12 + couleur 4 + 4 enfants 16 + Boolean 4 + pere 4 + rang 4 = 48 octets)
+ *           plus un objet Color par feuille (32 octets), soit environ 80 octets par feuille
+ *  - apres: 16 octets d'enfants + 4 octets de couleur + 1 bit, soit environ 20 octets par noeud
+ */
+class NodePool {
+    // Valeur d'indice pour "pas de noeud"
+    static final int NULL = -1;
+
+    // Position des enfants dans un bloc de 4
+    static final int NO = 0, NE = 1, SE = 2, SO = 3;
+
+    private static final int CAPACITE_INITIALE = 64;
+
+    private int[] enfants;      // 4 cases par noeud
+    private int[] couleurs;     // RGB compacte
+    private BitSet feuilles;    // bit a 1 si le noeud est une feuille
+    private int taille;         // nombre de cases deja utilisees (libres comprises)
+
+    // pile des cases liberees, reutilisees en priorite
+    private int[] libres;
+    private int nbLibres;
+
+    NodePool() {
+        this(CAPACITE_INITIALE);
+    }
+
+    NodePool(int capacite) {
+        capacite = Math.max(capacite, 1);
+        this.enfants = new int[4 * capacite];
+        this.couleurs = new int[capacite];
+        this.feuilles = new BitSet(capacite);
+        this.libres = new int[16];
+        this.taille = 0;
+        this.nbLibres = 0;
+    }
+
+    /**
+     * Alloue une feuille de couleur rgb
+     * @param rgb
+     * @return l'indice du noeud
+     */
+    int nouvelleFeuille(int rgb) {
+        int n = allouer();
+        couleurs[n] = rgb & 0xFFFFFF;
+        feuilles.set(n);
+        int base = 4 * n;
+        enfants[base] = enfants[base + 1] = enfants[base + 2] = enfants[base + 3] = NULL;
+        return n;
+    }
+
+    /**
+     * Alloue un noeud interne
+     * @return l'indice du noeud
+     */
+    int nouveauNoeud(int no, int ne, int se, int so) {
+        int n = allouer();
+        couleurs[n] = 0;
+        feuilles.clear(n);
+        int base = 4 * n;
+        enfants[base + NO] = no;
+        enfants[base + NE] = ne;
+        enfants[base + SE] = se;
+        enfants[base + SO] = so;
+        return n;
+    }
+
+    boolean estFeuille(int n) {
+        return feuilles.get(n);
+    }
+
+    int couleur(int n) {
+        return couleurs[n];
+    }
+
+    void setCouleur(int n, int rgb) {
+        couleurs[n] = rgb & 0xFFFFFF;
+    }
+
+    int enfant(int n, int k) {
+        return enfants[4 * n + k];
+    }
+
+    /**
+     * Transforme le noeud n en feuille de couleur rgb et libere son sous-arbre
+     * (y compris le sous-arbre garde d'un noeud replie)
+     * Complexite: O(taille du sous-arbre), O(1) pour une sur-feuille
+     * @param n
+     * @param rgb
+     */
+    void elaguer(int n, int rgb) {
+        int base = 4 * n;
+        for (int k = 0; k < 4; k++) {
+            libererSousArbre(enfants[base + k]);
+            enfants[base + k] = NULL;
+        }
+        couleurs[n] = rgb & 0xFFFFFF;
+        feuilles.set(n);
+    }
+
+    /**
+     * Rend a la reserve toutes les cases d'un sous-arbre
+     * @param n
+     */
+    void libererSousArbre(int n) {
+        if (n == NULL) return;
+        // une feuille n'a pas d'enfant, sauf un noeud replie qui garde les siens
+        int base = 4 * n;
+        for (int k = 0; k < 4; k++) {
+            libererSousArbre(enfants[base + k]);
+        }
+        liberer(n);
+    }
+
+    /**
+     * Transforme le noeud n en feuille de couleur rgb en gardant son sous-arbre,
+     * que deplier(n) rend tel quel
+     * Complexite: O(1)
+     * @param n
+     * @param rgb
+     */
+    void replier(int n, int rgb) {
+        couleurs[n] = rgb & 0xFFFFFF;
+        feuilles.set(n);
+    }
+
+    // Rend au noeud replie n son sous-arbre
+    void deplier(int n) {
+        feuilles.clear(n);
+    }
+
+    // Vrai si n est une feuille obtenue par replier (son sous-arbre est garde)
+    boolean estReplie(int n) {
+        return feuilles.get(n) && enfants[4 * n] != NULL;
+    }
+
+    // Remplace le k-ieme enfant du noeud interne n
+    void setEnfant(int n, int k, int enfant) {
+        enfants[4 * n + k] = enfant;
+    }
+
+    // Oublie les enfants de n sans les liberer (ils restent references ailleurs, voir RQuadtree DAG)
+    void detacherEnfants(int n) {
+        int base = 4 * n;
+        enfants[base] = enfants[base + 1] = enfants[base + 2] = enfants[base + 3] = NULL;
+    }
+
+    // Rend a la reserve la seule case n (ses enfants ne sont pas liberes)
+    void libererNoeud(int n) {
+        liberer(n);
+    }
+
+    // Nombre de noeuds vivants
+    int nbNoeuds() {
+        return taille - nbLibres;
+    }
+
+    // Nombre de cases deja utilisees: tout indice de noeud est < capacite()
+    int capacite() {
+        return taille;
+    }
+
+    // -------------- Fonctions utlitaires------------------------------------
+
+    private int allouer() {
+        if (nbLibres > 0) {
+            return libres[--nbLibres];
+        }
+        if (taille == couleurs.length) {
+            int capacite = couleurs.length * 2;
+            enfants = Arrays.copyOf(enfants, 4 * capacite);
+            couleurs = Arrays.copyOf(couleurs, capacite);
+        }
+        return taille++;
+    }
+
+    private void liberer(int n) {
+        feuilles.clear(n);
+        if (nbLibres == libres.length) {
+            libres = Arrays.copyOf(libres, libres.length * 2);
+        }
+        libres[nbLibres++] = n;
+    }
+}
@@ -0,0 +1,215 @@
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Palette de couleurs partageable entre threads (memes operations que AVL)
+ * Les couleurs sont reparties en 256 bandes selon leur rouge; chaque bande est un tableau trie
+ * qui n'est jamais modifie en place mais remplace en entier (copie sur ecriture):
+ *  - recherche: sans verrou, une lecture volatile de la bande puis une recherche dichotomique
+ *  - ajout, suppression: optimistes, la nouvelle bande est installee par compareAndSet et la copie
+ *    recommencee si un autre thread a change la bande entre-temps; des ecritures dans des bandes
+ *    differentes ne se genent pas
+ *  - parcours (couleurs, iterator, toString): instantane de chaque bande, dans l'ordre croissant
+ *    (celui de AVL.couleurs); chaque bande est coherente, mais une ecriture concurrente dans une
+ *    autre bande peut etre vue ou non
+ * Complexite: recherche O(log k), ecriture O(taille de la bande), parcours O(k)
+ */
+public class PaletteConcurrente implements Iterable<Integer> {
+    private static final int NB_BANDES = 256;
+    private static final int[] VIDE = new int[0];
+
+    // bande du rouge r: couleurs triees de rouge r
+    private final AtomicReferenceArray<int[]> bandes = new AtomicReferenceArray<>(NB_BANDES);
+
+    // Palette vide
+    public PaletteConcurrente() {
+        for (int b = 0; b < NB_BANDES; b++) {
+            bandes.set(b, VIDE);
+        }
+    }
+
+    /**
+     * Palette des couleurs donnees (doublons permis)
+     * @param colors couleurs compactees (0xRRGGBB, alpha ignore)
+     */
+    public PaletteConcurrente(int[] colors) {
+        this();
+        addAll(colors);
+    }
+
+    public void add(Color col){
+        add(col.getRGB());
+    }
+
+    /**
+     * Ajout a partir d'une couleur compactee (0xRRGGBB, alpha ignore)
+     * @param rgb
+     */
+    public void add(int rgb){
+        rgb &= 0xFFFFFF;
+        int b = rgb >>> 16;
+        while (true) {
+            int[] courante = bandes.get(b);
+            int i = Arrays.binarySearch(courante, rgb);
+            if (i >= 0) return;     // couleur deja presente
+            i = -i - 1;
+            int[] nouvelle = new int[courante.length + 1];
+            System.arraycopy(courante, 0, nouvelle, 0, i);
+            nouvelle[i] = rgb;
+            System.arraycopy(courante, i, nouvelle, i + 1, courante.length - i);
+            if (bandes.compareAndSet(b, courante, nouvelle)) return;
+        }
+    }
+
+    /**
+     * Ajout de plusieurs couleurs (par exemple les feuilles d'un arbre, voir RQuadtree.couleursFeuilles):
+     * une seule copie de chaque bande touchee
+     * @param colors couleurs compactees (0xRRGGBB, alpha ignore), le tableau n'est pas modifie
+     */
+    public void addAll(int[] colors){
+        int[] tri = new int[colors.length];
+        for (int i = 0; i < tri.length; i++) tri[i] = colors[i] & 0xFFFFFF;
+        Arrays.sort(tri);
+        for (int debut = 0, fin; debut < tri.length; debut = fin) {
+            int b = tri[debut] >>> 16;
+            fin = debut;
+            while (fin < tri.length && (tri[fin] >>> 16) == b) fin++;
+            while (true) {
+                int[] courante = bandes.get(b);
+                int[] nouvelle = fusionner(courante, tri, debut, fin);
+                if (nouvelle == courante || bandes.compareAndSet(b, courante, nouvelle)) break;
+            }
+        }
+    }
+
+    public void remove(Color col){
+        remove(col.getRGB());
+    }
+
+    /**
+     * Suppression a partir d'une couleur compactee (0xRRGGBB, alpha ignore)
+     * @param rgb
+     */
+    public void remove(int rgb){
+        rgb &= 0xFFFFFF;
+        int b = rgb >>> 16;
+        while (true) {
+            int[] courante = bandes.get(b);
+            int i = Arrays.binarySearch(courante, rgb);
+            if (i < 0) return;      // couleur absente
+            int[] nouvelle = (courante.length == 1) ? VIDE : new int[courante.length - 1];
+            System.arraycopy(courante, 0, nouvelle, 0, i);
+            System.arraycopy(courante, i + 1, nouvelle, i, courante.length - i - 1);
+            if (bandes.compareAndSet(b, courante, nouvelle)) return;
+        }
+    }
+
+    public boolean search(Color col){
+        return search(col.getRGB());
+    }
+
+    /**
+     * Recherche a partir d'une couleur compactee (0xRRGGBB, alpha ignore), sans verrou
+     * @param rgb
+     * @return true si la couleur est dans la palette
+     */
+    public boolean search(int rgb){
+        rgb &= 0xFFFFFF;
+        return Arrays.binarySearch(bandes.get(rgb >>> 16), rgb) >= 0;
+    }
+
+    // Nombre de couleurs (instantane de chaque bande)
+    public int size(){
+        int n = 0;
+        for (int b = 0; b < NB_BANDES; b++) {
+            n += bandes.get(b).length;
+        }
+        return n;
+    }
+
+    /**
+     * Couleurs de la palette dans l'ordre croissant (instantane de chaque bande)
+     * @return les couleurs compactees (0xRRGGBB)
+     */
+    public int[] couleurs(){
+        int[][] instantane = instantane();
+        int n = 0;
+        for (int[] bande : instantane) n += bande.length;
+        int[] colors = new int[n];
+        int i = 0;
+        for (int[] bande : instantane) {
+            System.arraycopy(bande, 0, colors, i, bande.length);
+            i += bande.length;
+        }
+        return colors;
+    }
+
+    /**
+     * Parcours dans l'ordre croissant sur un instantane pris a la creation de l'iterateur:
+     * les ecritures qui suivent ne le modifient pas
+     */
+    @Override
+    public PrimitiveIterator.OfInt iterator(){
+        int[][] instantane = instantane();
+        return new PrimitiveIterator.OfInt() {
+            private int b, i;
+
+            @Override
+            public boolean hasNext(){
+                while (b < NB_BANDES && i == instantane[b].length) {
+                    b++;
+                    i = 0;
+                }
+                return b < NB_BANDES;
+            }
+
+            @Override
+            public int nextInt(){
+                if (!hasNext()) throw new NoSuchElementException();
+                return instantane[b][i++];
+            }
+        };
+    }
+
+    /**
+     * Representation parenthesee de AVL.toString, pour un AVL construit sur les memes couleurs
+     * (meme parcours infixe)
+     */
+    @Override
+    public String toString(){
+        return new AVL(couleurs()).toString();
+    }
+
+    // -------------- Fonctions utlitaires------------------------------------
+
+    // Bandes lues une fois chacune, dans l'ordre des rouges
+    private int[][] instantane(){
+        int[][] instantane = new int[NB_BANDES][];
+        for (int b = 0; b < NB_BANDES; b++) {
+            instantane[b] = bandes.get(b);
+        }
+        return instantane;
+    }
+
+    /**
+     * Fusion d'une bande et des couleurs triees tri[debut..fin[ (meme bande, doublons permis)
+     * @return la nouvelle bande, ou la bande elle-meme si rien n'est ajoute
+     */
+    private static int[] fusionner(int[] bande, int[] tri, int debut, int fin){
+        int[] fusion = new int[bande.length + fin - debut];
+        int i = 0, j = debut, n = 0;
+        while (i < bande.length || j < fin) {
+            int c;
+            if (j == fin || (i < bande.length && bande[i] <= tri[j])) {
+                c = bande[i++];
+            } else {
+                c = tri[j++];
+            }
+            if (n == 0 || fusion[n - 1] != c) fusion[n++] = c;
+        }
+        return (n == bande.length) ? bande : Arrays.copyOf(fusion, n);
+    }
+}
@@ -1,9 +1,30 @@
 import java.awt.Color;
+import java.awt.Rectangle;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.awt.image.BufferedImage;
-import java.io.File;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 /**
  * Classe representant un R-Quadtree pour la compression d'images
@@ -11,256 +32,2083 @@ import javax.imageio.ImageIO;
  * Ordre des enfants: NO(1), NE(2), SE(3), SO(4)
  */
 public class RQuadtree {
-    // Classe interne pour representer un noeud de l'arbre 
-    private class Node{
-        Color color;
-        Node no, ne, se, so; 
-        Boolean isLeaf;
+    // Noeuds stockes a plat: un noeud est un indice dans la reserve (voir NodePool)
+    private final NodePool pool = new NodePool();
+
+    // racine et taille du RQuadtree 
+    private int root = NodePool.NULL;  
+    private int size;  
+
+    // Cote (en pixels) des regions au-dessus duquel la construction est decoupee en taches paralleles
+    public static final int SEUIL_PARALLELE = 256;
+
+    // Profondeur jusqu'a laquelle compressLambdaParallele decoupe l'arbre en taches (4^3 = 64 sous-arbres)
+    public static final int PROFONDEUR_PARALLELE = 3;
+
+    // Cote par defaut des tuiles de la construction par tuiles (fromPNG)
+    public static final int TUILE = 512;
+
+    // Duree de la derniere compression (nanosecondes)
+    private long dureeCompression;
+
+    // Suivi de l'erreur (voir activerSuiviErreur): 5 cases par noeud, aire du bloc puis sommes
+    // des composantes R, V, B des pixels d'origine et de leurs carres; null si le suivi est inactif
+    private long[] stats;
+    // somme des carres des ecarts (R, V, B) entre l'arbre et l'image d'origine
+    private long sse;
+
+    // Mode reversible (voir activerReversible): null si inactif
+    private Reversible reversible;
+
+    // Vrai si la couleur de chaque noeud interne est sa couleur moyenne (voir toPNG(int))
+    private boolean moyennes;
+
+    // Arbre partage (DAG, voir partagerSousArbres): nombre de peres de chaque noeud; null pour un arbre
+    private int[] references;
+    // DAG avec suivi de l'erreur: nombre d'occurrences (chemins depuis la racine) de chaque noeud
+    private int[] occurrences;
+
+    /**
+     * Constructeur: construit le R-Quadtree a partir d'une image
+     * Les images plus grandes que SEUIL_PARALLELE sont construites sur le pool fork/join commun
+     * Complexite:  O(n^2 log(n)) pire des ces 
+     *              O(n^2) meilleur des cas (avec l'optimisation de fusion)
+     *              avec n = largeur/hauteur de l'image et log(n): hauteur de l'arbre 
+     * @param image
+     */
+    public RQuadtree(ImagePNG image) { 
+        this(image, 0, SEUIL_PARALLELE);
+    }
+
+    /**
+     * Constructeur avec un niveau de parallelisme donne
+     * @param image
+     * @param parallelisme nombre de threads (1: sequentiel, 0 ou moins: pool fork/join commun)
+     */
+    public RQuadtree(ImagePNG image, int parallelisme) { 
+        this(image, parallelisme, SEUIL_PARALLELE);
+    }
+
+    /**
+     * Constructeur avec un niveau de parallelisme et un seuil de decoupage donnes
+     * Les quadrants de cote superieur a seuil sont construits par des taches fork/join independantes,
+     * chacune dans sa propre reserve de noeuds; en dessous, la recursion est sequentielle.
+     * L'arbre obtenu est identique a celui de la construction sequentielle.
+     * @param image
+     * @param parallelisme nombre de threads (1: sequentiel, 0 ou moins: pool fork/join commun)
+     * @param seuil cote minimal d'une region decoupee en taches (puissance de 2)
+     */
+    public RQuadtree(ImagePNG image, int parallelisme, int seuil) { 
+        this.size = image.width();
+        // Verifier que la taille est une puissance de 2 
+        if (!isPowerOfTwo(size) || (size != image.height())) {
+        return; 
+        }
+        
+        // construction de l'arbre recursivement 
+        // (lecture directe du tableau de pixels de l'image quand il est disponible)
+        int[] pixels = image.getDataBuffer();
+        if (pixels == null) {
+            pixels = image.getRGB(0, 0, size, size, null);
+        }
+        if (parallelisme <= 0 && ForkJoinPool.getCommonPoolParallelism() <= 1) {
+            parallelisme = 1; // une seule unite de calcul: inutile de decouper
+        }
+        if (parallelisme == 1 || size <= seuil) {
+            this.root = buildTree(pool, pixels, size, 0,0, size);
+        } else {
+            this.root = buildTreeParallele(pixels, parallelisme, Math.max(seuil, 1));
+        }
+    }
+
+    /**
+     * Construction par tuiles, sans charger l'image entiere (images plus grandes que le tas)
+     * L'image est lue par bandes de tuile lignes (ImageReadParam.setSourceRegion) et chaque
+     * tuile (tuile x tuile pixels) d'une bande est construite par buildTree; seule sa racine est gardee.
+     * Les niveaux superieurs sont ensuite assembles comme dans buildTree, avec la meme fusion
+     * des feuilles de meme couleur, y compris entre tuiles voisines: l'arbre est identique a
+     * celui de new RQuadtree(new ImagePNG(path)).
+     * Memoire: une bande (n x tuile pixels) plus l'arbre
+     * Complexite: O(n^2) pour la construction; le decodeur PNG relit depuis le debut du flux
+     *             les lignes qui precedent chaque bande, soit O(n^3/tuile) lignes decodees au pire
+     * @param path chemin de l'image (carree, de cote puissance de 2)
+     * @param tuile cote des tuiles (arrondi a la puissance de 2 inferieure)
+     * @return l'arbre (vide si l'image n'est pas carree de cote puissance de 2, comme le constructeur)
+     * @throws IOException si l'image est illisible
+     */
+    public static RQuadtree fromPNG(String path, int tuile) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new File(path))) {
+            if (in == null) throw new IOException("Fichier illisible: " + path);
+            Iterator<ImageReader> lecteurs = ImageIO.getImageReaders(in);
+            if (!lecteurs.hasNext()) throw new IOException("Format d'image non reconnu: " + path);
+            ImageReader lecteur = lecteurs.next();
+            try {
+                lecteur.setInput(in, true, true);
+                RQuadtree tree = new RQuadtree(lecteur.getWidth(0));
+                int size = tree.size;
+                if (!tree.isPowerOfTwo(size) || size != lecteur.getHeight(0)) {
+                    return tree;
+                }
+                tuile = Math.min(Integer.highestOneBit(Math.max(tuile, 1)), size);
+
+                // racines des tuiles, ligne par ligne
+                int n = size / tuile;
+                int[] racines = new int[n * n];
+                ImageReadParam param = lecteur.getDefaultReadParam();
+                for (int j = 0; j < n; j++) {
+                    param.setSourceRegion(new Rectangle(0, j * tuile, size, tuile));
+                    ImagePNG bande = new ImagePNG(lecteur.read(0, param));
+                    int[] pixels = bande.getDataBuffer();
+                    if (pixels == null) {
+                        pixels = bande.getRGB(0, 0, size, tuile, null);
+                    }
+                    for (int i = 0; i < n; i++) {
+                        racines[j * n + i] = buildTree(tree.pool, pixels, size, i * tuile, 0, tuile);
+                    }
+                }
+                tree.root = assemblerTuiles(tree.pool, racines, n, 0, 0, n);
+                return tree;
+            } finally {
+                lecteur.dispose();
+            }
+        }
+    }
+
+    /**
+     * Construction canonique: les sous-arbres identiques sont partages (l'arbre devient un DAG)
+     * Chaque noeud est cherche dans une table de hachage structurelle (voir TableNoeuds) des sa
+     * construction, si bien que la memoire de pointe est celle du DAG. La fusion des feuilles de
+     * meme couleur est celle de buildTree: toPNG, toString et save donnent le meme resultat
+     * qu'avec new RQuadtree(image).
+     * Complexite: O(n^2) en moyenne
+     * @param image
+     * @return l'arbre partage
+     */
+    public static RQuadtree construirePartage(ImagePNG image){
+        RQuadtree tree = new RQuadtree(image.width());
+        if (!tree.isPowerOfTwo(tree.size) || tree.size != image.height()) {
+            return tree;
+        }
+        int[] pixels = image.getDataBuffer();
+        if (pixels == null) {
+            pixels = image.getRGB(0, 0, tree.size, tree.size, null);
+        }
+        TableNoeuds table = new TableNoeuds(tree.pool);
+        tree.root = buildTreePartage(tree.pool, table, pixels, tree.size, 0, 0, tree.size);
+        tree.compterReferences();
+        return tree;
+    }
+
+    /**
+     * Partage les sous-arbres identiques de l'arbre (hash-consing en un parcours post-fixe):
+     * chaque doublon est rendu a la reserve et ses peres pointent vers le representant.
+     * Les compressions gardent ensuite le partage:
+     * compressLambda modifie un sous-arbre partage pour toutes ses occurrences (le resultat ne
+     * depend que du sous-arbre) et ne libere un enfant que lorsqu'il n'a plus de pere;
+     * compressPhi, qui decide occurrence par occurrence, copie le noeud elague et son chemin
+     * depuis la racine s'ils sont partages (copie sur ecriture), le reste du DAG restant partage;
+     * le suivi d'erreur ne copie que les occurrences dont les pixels d'origine different.
+     * Complexite: O(m) en moyenne
+     * @return le nombre de noeuds economises
+     */
+    public int partagerSousArbres(){
+        if (reversible != null || stats != null) {
+            throw new IllegalStateException("Partage impossible en mode reversible ou avec suivi d'erreur");
+        }
+        int avant = pool.nbNoeuds();
+        if (root != NodePool.NULL && references == null) {
+            TableNoeuds table = new TableNoeuds(pool);
+            root = partagerRec(table, root);
+            compterReferences();
+        }
+        return avant - pool.nbNoeuds();
+    }
+
+    // Nombre de noeuds distincts en memoire (un noeud partage compte une fois)
+    public int getNodeCount(){
+        return pool.nbNoeuds();
+    }
+
+    // Vrai si des sous-arbres sont partages (voir partagerSousArbres)
+    public boolean estPartage(){
+        return references != null;
+    }
+
+    // Vrai en mode reversible (voir activerReversible)
+    public boolean estReversible(){
+        return reversible != null;
+    }
+
+    // Arbre vide d'une taille donnee (utilise par load)
+    private RQuadtree(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Conversion du R-quadtree en objet ImagePNG 
+     * L'image est rendue directement en memoire, un bloc par feuille
+     * Complexité : O(n^2) pour créer et remplir l'image
+     * @return imagePNG reconstituée à partir de l'arbre
+     */
+    public ImagePNG toPNG() {
+        // Image noire de la bonne taille
+        ImagePNG img = new ImagePNG(size, size);
+
+        // Remplir l'image récursivement à partir de l'arbre
+        toPNG_Rec(img, root, 0, 0, size);
+        return img;  
+    }
+
+    /**
+     * Ecrit l'arbre en fichier PNG
+     * Si l'arbre a au plus 256 couleurs (couleurs des feuilles), l'image est ecrite
+     * a palette (1, 2, 4 ou 8 bits par pixel, voir EncodeurPNG) directement depuis l'arbre:
+     * un indice de palette par feuille, recopie sur les lignes de son bloc, sans passer par toPNG.
+     * Sinon, l'image est rendue (toPNG) et ecrite en RGB 24 bits par ImageIO.
+     * Le comptage des couleurs s'arrete a la 257e: le repli RGB ne paie pas de tri des feuilles.
+     * Complexite: O(n^2 + f log k) avec f feuilles et k couleurs
+     * @param path chemin du fichier
+     * @param niveau niveau de compression (0 a 9, ou Deflater.DEFAULT_COMPRESSION); ignore en RGB
+     * @return true si l'image a ete ecrite a palette
+     * @throws IOException
+     */
+    public boolean savePNG(String path, int niveau) throws IOException {
+        int[] palette = paletteBornee(EncodeurPNG.MAX_COULEURS);
+        if (palette == null) {
+            toPNG().save(path);
+            return false;
+        }
+        byte[] indices = new byte[size * size];
+        indicesRec(root, palette, indices, 0, 0, size);
+        try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(path))) {
+            EncodeurPNG.ecrire(out, size, size, palette, indices, niveau);
+        }
+        return true;
+    }
+
+    /**
+     * Rendu a une autre resolution (apercu): image targetSize x targetSize
+     * La descente s'arrete a la profondeur log2(targetSize): un sous-arbre plus profond
+     * devient un seul pixel, de la couleur moyenne calculee comme CouleurMoyenne (moyenne
+     * des 4 enfants, recursivement, c'est-a-dire la couleur qu'il prendrait une fois elague),
+     * et chaque feuille moins profonde est ecrite en un bloc a la resolution reduite.
+     * Les couleurs moyennes sont calculees une fois et gardees dans les noeuds internes:
+     * les compressions ne les changent pas (un elagage donne au noeud sa couleur moyenne).
+     * Complexite: O(m) au premier appel, puis O(targetSize^2)
+     * @param targetSize cote de l'image rendue (puissance de 2; plus grand que size: agrandissement)
+     * @return l'image rendue
+     */
+    public ImagePNG toPNG(int targetSize) {
+        if (!isPowerOfTwo(targetSize)) {
+            throw new IllegalArgumentException("La taille doit etre une puissance de 2: " + targetSize);
+        }
+        if (!moyennes && root != NodePool.NULL) {
+            calculerMoyennes(root);
+            moyennes = true;
+        }
+        ImagePNG img = new ImagePNG(targetSize, targetSize);
+        toPNG_LOD(img, root, 0, 0, targetSize);
+        return img;
+    }
+
+    /**
+     * Couleur du pixel (x,y), en descendant NO/NE/SE/SO depuis la racine sans rendu
+     * Complexite: O(profondeur) = O(log n)
+     * @param x
+     * @param y
+     * @return couleur compactee (0xRRGGBB)
+     */
+    public int getRGB(int x, int y) {
+        if (x < 0 || y < 0 || x >= size || y >= size) {
+            throw new IllegalArgumentException("Pixel hors de l'image: (" + x + "," + y + ")");
+        }
+        int node = root;
+        if (node == NodePool.NULL) return 0;
+        int x0 = 0, y0 = 0, taille = size;
+        while (!pool.estFeuille(node)) {
+            int halfSize = taille / 2;
+            boolean est = x >= x0 + halfSize, sud = y >= y0 + halfSize;
+            node = pool.enfant(node, sud ? (est ? NodePool.SE : NodePool.SO) : (est ? NodePool.NE : NodePool.NO));
+            if (est) x0 += halfSize;
+            if (sud) y0 += halfSize;
+            taille = halfSize;
+        }
+        return pool.couleur(node);
+    }
+
+    // Couleur du pixel (x,y)
+    public Color getColor(int x, int y) {
+        return new Color(getRGB(x, y));
+    }
+
+    /**
+     * Rendu de la region w x h de coin superieur gauche (x,y), sans rendre l'image entiere
+     * Seuls les quadrants qui chevauchent la region sont parcourus
+     * Complexite: O(w*h + nombre de noeuds qui chevauchent la region)
+     * @param x
+     * @param y
+     * @param w
+     * @param h
+     * @return une image w x h
+     */
+    public ImagePNG renderRegion(int x, int y, int w, int h) {
+        if (x < 0 || y < 0 || w <= 0 || h <= 0 || x + w > size || y + h > size) {
+            throw new IllegalArgumentException("Region hors de l'image");
+        }
+        ImagePNG img = new ImagePNG(w, h);
+        renderRegionRec(img, x, y, w, h, root, 0, 0, size);
+        return img;
+    }
+
+    // Représentation textuelle parenthésée
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        try {
+            writeTo(sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // impossible avec un StringBuilder
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Ecrit la representation parenthesee (identique a toString) au fil de l'eau,
+     * sans construire de chaines intermediaires
+     * Complexite: O(m) avec m le nombre de noeuds
+     * @param out destination (de preference bufferisee, par exemple un BufferedWriter)
+     * @throws IOException
+     */
+    public void writeTo(Appendable out) throws IOException {
+        writeToRec(root, out);
+    }
+
+    // Signatures des fichiers .rqt ("RQT" suivi du numero de version)
+    static final int RQT_MAGIC_V1 = 0x52515401;
+    static final int RQT_MAGIC = 0x52515402;
+
+    // Taille (en noeuds) a partir de laquelle un sous-arbre a une entree dans l'index du fichier .rqt
+    static final int RQT_BLOC = 1024;
+
+    /**
+     * Sauvegarde l'arbre au format binaire .rqt (version 2)
+     *  - en-tete : signature "RQT"+version, taille n, nombre de noeuds m, taille k de la palette,
+     *              nombre e d'entrees d'index, taille de bloc b (6 int)
+     *  - palette : k couleurs de 3 octets (R, G, B), dans l'ordre croissant de l'AVL des feuilles
+     *  - index   : e entrees de 6 int, en parcours prefixe, une par noeud interne dont le sous-arbre
+     *              a au moins b noeuds: nombre de noeuds puis nombre d'entrees des sous-arbres NO, NE, SE
+     *              (permet de sauter un quadrant sans le lire, voir RQuadtreeMappe)
+     *  - structure: m bits en parcours prefixe NO, NE, SE, SO (1 = noeud interne, 0 = feuille)
+     *  - feuilles : un indice de palette par feuille, sur ceil(log2(k)) bits, dans le meme ordre
+     * Chaque flux de bits est complete jusqu'a l'octet (bits de poids fort d'abord).
+     * La version 1 (sans index: en-tete de 4 int) reste lisible par load.
+     * Complexite: O(m log k)
+     * @param path chemin du fichier
+     * @throws IOException
+     */
+    public void save(String path) throws IOException {
+        int[] palette = new AVL(this).couleurs();
+        int bits = bitsPourIndice(palette.length);
+        EcritureBits structure = new EcritureBits();
+        EcritureBits feuilles = new EcritureBits();
+        int[] index = new int[0];
+        int nbEntrees = 0;
+        if (root != NodePool.NULL) {
+            ecrireRqt(root, palette, bits, structure, feuilles);
+
+            // tailles des sous-arbres (noeuds, entrees d'index), puis entrees en ordre prefixe
+            int[] noeuds = new int[pool.capacite()];
+            int[] entrees = new int[pool.capacite()];
+            compterSousArbres(root, noeuds, entrees);
+            index = new int[6 * entrees[root]];
+            nbEntrees = ecrireIndex(root, noeuds, entrees, index, 0) / 6;
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(RQT_MAGIC);
+            out.writeInt(size);
+            out.writeInt(structure.nbBits);
+            out.writeInt(palette.length);
+            out.writeInt(nbEntrees);
+            out.writeInt(RQT_BLOC);
+            for (int rgb : palette) {
+                out.writeByte(rgb >> 16);
+                out.writeByte(rgb >> 8);
+                out.writeByte(rgb);
+            }
+            for (int i = 0; i < 6 * nbEntrees; i++) {
+                out.writeInt(index[i]);
+            }
+            structure.ecrire(out);
+            feuilles.ecrire(out);
+        }
+    }
+
+    /**
+     * Charge un arbre sauvegarde par save (versions 1 et 2, l'index est ignore)
+     * Complexite: O(m) avec m le nombre de noeuds
+     * @param path chemin du fichier .rqt
+     * @return l'arbre
+     * @throws IOException si le fichier est illisible ou n'est pas au format .rqt
+     */
+    public static RQuadtree load(String path) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(Paths.get(path)));
+        try {
+            int magic = in.getInt();
+            if (magic != RQT_MAGIC && magic != RQT_MAGIC_V1) throw new IOException("Fichier .rqt invalide: " + path);
+            RQuadtree tree = new RQuadtree(in.getInt());
+            int nbNoeuds = in.getInt();
+            int[] palette = new int[in.getInt()];
+            int tailleIndex = 0;
+            if (magic == RQT_MAGIC) {
+                tailleIndex = 24 * in.getInt();
+                in.getInt(); // taille de bloc
+            }
+            for (int i = 0; i < palette.length; i++) {
+                palette[i] = ((in.get() & 0xFF) << 16) | ((in.get() & 0xFF) << 8) | (in.get() & 0xFF);
+            }
+            in.position(in.position() + tailleIndex);
+            if (nbNoeuds > 0) {
+                LectureBits structure = new LectureBits(in.array(), in.position());
+                LectureBits feuilles = new LectureBits(in.array(), in.position() + (nbNoeuds + 7) / 8);
+                tree.root = tree.lireRqt(palette, bitsPourIndice(palette.length), structure, feuilles);
+            }
+            return tree;
+        } catch (RuntimeException e) {
+            // fichier tronque ou indices hors palette
+            throw new IOException("Fichier .rqt invalide: " + path, e);
+        }
+    }
+
+    /**
+     * Relit la representation parenthesee ecrite par toString/writeTo (fichiers R.txt du mode batch)
+     * Grammaire: arbre := couleur | "(" arbre " " arbre " " arbre " " arbre ")", couleur := 6 chiffres hexa
+     * Analyse en une seule passe sur les caracteres, lus par blocs dans un tampon, avec une pile
+     * explicite d'indices de noeuds: aucune allocation par lexeme.
+     * Complexite: O(c) avec c le nombre de caracteres
+     * @param in source du texte (les blancs entre lexemes sont ignores)
+     * @param size cote de l'image representee (puissance de 2)
+     * @return l'arbre
+     * @throws IOException en cas d'erreur de lecture ou de texte mal forme
+     */
+    public static RQuadtree fromText(Reader in, int size) throws IOException {
+        RQuadtree tree = new RQuadtree(size);
+        NodePool pool = tree.pool;
+        int profondeurMax = Integer.numberOfTrailingZeros(size);
+
+        int[] pile = new int[64];     // noeuds construits en attente de leur pere
+        int hauteur = 0;
+        int[] debuts = new int[profondeurMax + 1]; // hauteur de pile a chaque "(" ouverte
+        int ouvertes = 0;
+
+        char[] tampon = new char[1 << 16];
+        int couleur = 0, chiffres = 0;
+        long position = 0;
+        for (int lus = in.read(tampon); lus > 0; lus = in.read(tampon)) {
+            for (int i = 0; i < lus; i++, position++) {
+                char c = tampon[i];
+                int chiffre = Character.digit(c, 16);
+                if (chiffre >= 0) {
+                    couleur = (couleur << 4) | chiffre;
+                    if (++chiffres > 6) throw erreurTexte("couleur trop longue", position);
+                    continue;
+                }
+                // fin d'une couleur: nouvelle feuille
+                if (chiffres > 0) {
+                    if (chiffres != 6) throw erreurTexte("couleur incomplete", position);
+                    if (hauteur == pile.length) pile = Arrays.copyOf(pile, 2 * hauteur);
+                    pile[hauteur++] = pool.nouvelleFeuille(couleur);
+                    couleur = 0;
+                    chiffres = 0;
+                }
+                if (c == '(') {
+                    if (ouvertes == profondeurMax) throw erreurTexte("arbre trop profond pour la taille " + size, position);
+                    debuts[ouvertes++] = hauteur;
+                } else if (c == ')') {
+                    if (ouvertes == 0 || hauteur - debuts[--ouvertes] != 4) {
+                        throw erreurTexte("un noeud interne doit avoir 4 enfants", position);
+                    }
+                    hauteur -= 4;
+                    pile[hauteur] = pool.nouveauNoeud(pile[hauteur], pile[hauteur + 1], pile[hauteur + 2], pile[hauteur + 3]);
+                    hauteur++;
+                } else if (!Character.isWhitespace(c)) {
+                    throw erreurTexte("caractere inattendu '" + c + "'", position);
+                }
+            }
+        }
+        if (chiffres > 0) {
+            if (chiffres != 6) throw erreurTexte("couleur incomplete", position);
+            if (hauteur == pile.length) pile = Arrays.copyOf(pile, 2 * hauteur);
+            pile[hauteur++] = pool.nouvelleFeuille(couleur);
+        }
+        if (ouvertes != 0 || hauteur != 1) throw erreurTexte("texte incomplet", position);
+        tree.root = pile[0];
+        return tree;
+    }
+
+    private static IOException erreurTexte(String message, long position){
+        return new IOException("Arbre texte invalide (caractere " + position + "): " + message);
+    }
+
+    /**
+     * Compression a qualite controlee avce 0 < lambda < 255
+     * @param Lambda
+     */
+    public void compressLambda(int Lambda) {
+        long debut = System.nanoTime();
+        if (reversible != null) {
+            reversible.reglerLambda(Lambda);
+        } else {
+            root = compressLambdaRec(root, Lambda);
+        }
+        dureeCompression = System.nanoTime() - debut;
+    }
+
+    /**
+     * Compression lambda parallele: les sous-arbres des PROFONDEUR_PARALLELE premiers niveaux
+     * sont traites par des taches fork/join independantes (le traitement post-fixe d'un sous-arbre
+     * ne depend pas de ses freres), puis les elagages decides sont appliques a la reserve.
+     * L'arbre obtenu est identique a celui de compressLambda.
+     * @param Lambda
+     * @param parallelisme nombre de threads (0 ou moins: pool fork/join commun)
+     */
+    public void compressLambdaParallele(int Lambda, int parallelisme) {
+        if (reversible != null || references != null) {
+            // reversible: deja proportionnel au nombre d'elagages qui changent;
+            // DAG: des taches differentes atteindraient les memes noeuds partages
+            compressLambda(Lambda);
+            return;
+        }
+        long debut = System.nanoTime();
+        if (root != NodePool.NULL) {
+            CompressionLambda tache = new CompressionLambda(root, Lambda, 0);
+            if (parallelisme <= 0) {
+                ForkJoinPool.commonPool().invoke(tache);
+            } else {
+                ForkJoinPool fj = new ForkJoinPool(parallelisme);
+                try {
+                    fj.invoke(tache);
+                } finally {
+                    fj.shutdown();
+                }
+            }
+            // application sequentielle des elagages (reserve partagee)
+            tache.appliquer();
+        }
+        dureeCompression = System.nanoTime() - debut;
+    }
+
+    /**
+     * Duree de la derniere compression (compressLambda, compressLambdaParallele ou compressPhi)
+     * @return duree en nanosecondes
+     */
+    public long getDureeCompression() {
+        return dureeCompression;
+    }
+
+    /**
+     * Reduit la palette a au plus k couleurs
+     * La palette est choisie par coupe mediane sur les couleurs des feuilles (ponderees par leur
+     * nombre de pixels): la boite de couleurs la plus etendue est coupee en deux a la mediane de
+     * sa composante la plus etendue, jusqu'a k boites; chaque boite donne sa couleur moyenne.
+     * Chaque feuille prend ensuite la couleur la plus proche de la palette (AVL.plusProche),
+     * puis 4 feuilles soeurs devenues identiques sont fusionnees (en remontant).
+     * Le mode reversible est quitte (l'arbre garde sa compression actuelle).
+     * Complexite: O(m + d log d) avec d le nombre de couleurs distinctes
+     * @param k nombre maximal de couleurs (k >= 1)
+     * @return la palette (k couleurs ou moins)
+     */
+    public AVL quantize(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("Nombre de couleurs invalide: " + k);
+        }
+        desactiverReversible();
+        if (root == NodePool.NULL) return new AVL(new int[0]);
+
+        // couleurs distinctes des feuilles et nombre de pixels de chacune
+        int[] feuilles = couleursFeuilles();
+        long[] aires = new long[feuilles.length];
+        airesFeuillesRec(root, size, aires, 0);
+        long[] cles = new long[feuilles.length];
+        for (int i = 0; i < cles.length; i++) cles[i] = ((long) feuilles[i] << 32) | i;
+        Arrays.sort(cles);
+        int d = 0;
+        int[] couleurs = new int[feuilles.length];
+        long[] poids = new long[feuilles.length];
+        for (int i = 0; i < cles.length; i++) {
+            int c = (int) (cles[i] >>> 32);
+            if (d == 0 || couleurs[d - 1] != c) couleurs[d++] = c;
+            poids[d - 1] += aires[(int) cles[i]];
+        }
+        couleurs = Arrays.copyOf(couleurs, d);
+        poids = Arrays.copyOf(poids, d);
+
+        AVL palette = new AVL(new CoupeMediane(couleurs.clone(), poids).palette(k));
+
+        // couleur de remplacement de chaque couleur distincte (couleurs est trie)
+        int[] remplacements = new int[d];
+        for (int i = 0; i < d; i++) remplacements[i] = palette.plusProche(couleurs[i]);
+        quantizeRec(root, couleurs, remplacements);
+        moyennes = false;
+        return palette;
+    }
+
+    // Nombre de pixels de chaque feuille, dans l'ordre prefixe (comme couleursFeuilles)
+    private int airesFeuillesRec(int node, int taille, long[] aires, int i){
+        if (pool.estFeuille(node)) {
+            aires[i] = (long) taille * taille;
+            return i + 1;
+        }
+        for (int k = NodePool.NO; k <= NodePool.SO; k++) {
+            i = airesFeuillesRec(pool.enfant(node, k), taille / 2, aires, i);
+        }
+        return i;
+    }
+
+    // Recolore les feuilles et fusionne en post-fixe les sur-feuilles de 4 feuilles identiques
+    private void quantizeRec(int node, int[] couleurs, int[] remplacements){
+        if (pool.estFeuille(node)) {
+            // absente: feuille partagee (DAG) deja recoloree par une autre occurrence
+            int i = Arrays.binarySearch(couleurs, pool.couleur(node));
+            if (i < 0) return;
+            int ancienne = couleurs[i], nouvelle = remplacements[i];
+            if (nouvelle != ancienne) {
+                if (stats != null) {
+                    sse += nbOccurrences(node) * (erreurFeuille(node, nouvelle) - erreurFeuille(node, ancienne));
+                }
+                pool.setCouleur(node, nouvelle);
+            }
+            return;
+        }
+        for (int k = NodePool.NO; k <= NodePool.SO; k++) {
+            quantizeRec(pool.enfant(node, k), couleurs, remplacements);
+        }
+        int no = pool.enfant(node, NodePool.NO), ne = pool.enfant(node, NodePool.NE);
+        int se = pool.enfant(node, NodePool.SE), so = pool.enfant(node, NodePool.SO);
+        if (pool.estFeuille(no) && pool.estFeuille(ne) && pool.estFeuille(se) && pool.estFeuille(so)
+                && pool.couleur(no) == pool.couleur(ne) && pool.couleur(ne) == pool.couleur(se)
+                && pool.couleur(se) == pool.couleur(so)) {
+            elaguer(node, pool.couleur(no));
+        }
+    }
+
+    /**
+     * Coupe mediane sur des couleurs distinctes ponderees
+     * Une boite est un intervalle du tableau des couleurs, trie sur la composante a couper
+     * (les tableaux sont reordonnes sur place)
+     */
+    private static class CoupeMediane {
+        private final int[] couleurs;
+        private final long[] poids;
+
+        // Boite [debut, fin) et son etendue sur sa composante la plus etendue (decalage 16, 8 ou 0)
+        private class Boite implements Comparable<Boite> {
+            final int debut, fin;
+            int decalage, etendue;
+
+            Boite(int debut, int fin){
+                this.debut = debut;
+                this.fin = fin;
+                etendue = -1;
+                for (int decal = 16; decal >= 0; decal -= 8) {
+                    int min = 255, max = 0;
+                    for (int i = debut; i < fin; i++) {
+                        int c = (couleurs[i] >> decal) & 0xFF;
+                        min = Math.min(min, c);
+                        max = Math.max(max, c);
+                    }
+                    if (max - min > etendue) {
+                        etendue = max - min;
+                        decalage = decal;
+                    }
+                }
+            }
+
+            // la plus etendue d'abord
+            @Override
+            public int compareTo(Boite autre){
+                return Integer.compare(autre.etendue, etendue);
+            }
+        }
+
+        CoupeMediane(int[] couleurs, long[] poids){
+            this.couleurs = couleurs;
+            this.poids = poids;
+        }
+
+        // Au plus k couleurs: la moyenne ponderee de chaque boite
+        int[] palette(int k){
+            PriorityQueue<Boite> boites = new PriorityQueue<>();
+            List<Boite> finies = new ArrayList<>();
+            boites.add(new Boite(0, couleurs.length));
+            while (!boites.isEmpty() && boites.size() + finies.size() < k) {
+                Boite b = boites.poll();
+                if (b.etendue == 0) {
+                    // une seule couleur: plus rien a couper
+                    finies.add(b);
+                    continue;
+                }
+                int milieu = couper(b);
+                boites.add(new Boite(b.debut, milieu));
+                boites.add(new Boite(milieu, b.fin));
+            }
+            finies.addAll(boites);
+            int[] palette = new int[finies.size()];
+            for (int i = 0; i < palette.length; i++) palette[i] = moyenne(finies.get(i));
+            return palette;
+        }
+
+        // Trie la boite sur sa composante et renvoie l'indice de la mediane ponderee (debut < milieu < fin)
+        private int couper(Boite b){
+            int n = b.fin - b.debut;
+            long[] cles = new long[n];
+            long total = 0;
+            for (int i = 0; i < n; i++) {
+                int c = couleurs[b.debut + i];
+                cles[i] = ((long) ((c >> b.decalage) & 0xFF) << 56) | ((long) c << 32 >>> 8) | i;
+                total += poids[b.debut + i];
+            }
+            Arrays.sort(cles);
+            int[] c2 = new int[n];
+            long[] p2 = new long[n];
+            for (int i = 0; i < n; i++) {
+                int j = (int) (cles[i] & 0xFFFFFF);
+                c2[i] = couleurs[b.debut + j];
+                p2[i] = poids[b.debut + j];
+            }
+            System.arraycopy(c2, 0, couleurs, b.debut, n);
+            System.arraycopy(p2, 0, poids, b.debut, n);
+
+            long cumul = 0;
+            int milieu = b.debut;
+            while (milieu < b.fin - 1 && 2 * (cumul + poids[milieu]) <= total) {
+                cumul += poids[milieu++];
+            }
+            return Math.max(milieu, b.debut + 1);
+        }
+
+        private int moyenne(Boite b){
+            long total = 0, r = 0, v = 0, bl = 0;
+            for (int i = b.debut; i < b.fin; i++) {
+                long p = poids[i];
+                int c = couleurs[i];
+                total += p;
+                r += p * ((c >> 16) & 0xFF);
+                v += p * ((c >> 8) & 0xFF);
+                bl += p * (c & 0xFF);
+            }
+            return (int) ((r + total / 2) / total) << 16 | (int) ((v + total / 2) / total) << 8
+                   | (int) ((bl + total / 2) / total);
+        }
+    }
+
+    /**
+     * Active le suivi incremental de l'erreur par rapport a l'image d'origine
+     * Chaque feuille garde l'aire de son bloc et les sommes des composantes (et de leurs carres)
+     * des pixels d'origine qu'elle couvre: a chaque elagage, l'erreur du nouveau bloc se deduit
+     * des sommes des 4 feuilles remplacees, sans rendu ni relecture de l'image.
+     * DAG: les sommes d'un noeud partage doivent valoir pour toutes ses occurrences. Une occurrence
+     * dont les pixels d'origine different de ceux d'une occurrence deja vue (sous-arbre partage
+     * apres compression) recoit sa propre copie, avec le chemin qui y mene; le reste reste partage.
+     * Chaque noeud compte ses occurrences, qui multiplient la variation d'erreur de ses elagages.
+     * Memoire: 40 octets de plus par noeud (44 pour un DAG)
+     * Complexite: O(n^2) (un passage sur l'image), puis O(1) par elagage
+     * @param original image dont l'arbre est issu (meme taille)
+     */
+    public void activerSuiviErreur(ImagePNG original){
+        if (original.width() != size || original.height() != size) {
+            throw new IllegalArgumentException("L'image d'origine doit etre de taille " + size + "x" + size);
+        }
+        int[] pixels = original.getDataBuffer();
+        if (pixels == null) {
+            pixels = original.getRGB(0, 0, size, size, null);
+        }
+        if (references == null) {
+            stats = new long[5 * pool.capacite()];
+            sse = 0;
+            if (root != NodePool.NULL) {
+                statsRec(root, pixels, 0, 0, size);
+            }
+            return;
+        }
+        // DAG: les copies changent les noeuds, le mode reversible est recalcule sur l'arbre deplie
+        Reversible ancien = reversible;
+        if (ancien != null) {
+            ancien.toutDeplier();
+            reversible = null;
+        }
+        stats = new long[5 * pool.capacite()];
+        occurrences = new int[pool.capacite()];
+        sse = 0;
+        if (root != NodePool.NULL) {
+            root = statsPartageRec(root, pixels, 0, 0, size, new BitSet());
+        }
+        if (ancien != null) {
+            reversible = new Reversible();
+            reversible.reprendre(ancien);
+        }
+    }
+
+    /**
+     * Qualite de l'arbre par rapport a l'image d'origine, sur l'echelle de ImagePNG.computeEQM
+     * (meme resultat que computeEQM(original, toPNG()), sans rendu)
+     * Complexite: O(1)
+     * @return pourcentage de similarite arrondi au centieme
+     */
+    public double currentEQM(){
+        if (stats == null) {
+            throw new IllegalStateException("Suivi de l'erreur inactif (voir activerSuiviErreur)");
+        }
+        double eqm = sse / (255.0 * 255.0 * 3.0 * size * size);
+        return Math.ceil(10000 * (1 - eqm)) / 100.0;
+    }
+
+    // Plus grande valeur utile de lambda: la degradation en luminance est au plus 255
+    public static final int LAMBDA_MAX = 256;
+
+    /**
+     * Courbe debit-distorsion de la compression lambda, en un seul parcours post-fixe
+     * Un noeud interne est elague par compressLambda(lambda) si et seulement si ses 4 enfants
+     * le sont (ou sont des feuilles) et si sa degradation est < lambda: son seuil est donc
+     * seuil = max(degradation, seuils des enfants), et il est elague exactement quand seuil < lambda.
+     * La couleur d'un noeud elague ne depend pas de lambda (moyenne des couleurs de ses enfants
+     * elagues), d'ou le nombre de feuilles et l'erreur pour tous les lambda a la fois.
+     * La courbe reste valable tant que l'arbre n'est pas modifie (compression).
+     * Complexite: O(m + LAMBDA_MAX) avec m le nombre de noeuds
+     * @return la courbe, qui permet aussi de materialiser l'arbre compresse pour un lambda donne
+     */
+    public CourbeLambda courbeLambda(){
+        CourbeLambda courbe = new CourbeLambda();
+        if (root != NodePool.NULL) {
+            int profondeur = Integer.numberOfTrailingZeros(size) + 1;
+            long[] sse = new long[pool.capacite()];
+            long[] variation = new long[LAMBDA_MAX + 2];   // erreurs en differences (par lambda)
+            int[] elagages = new int[LAMBDA_MAX + 2];       // noeuds elagues a partir de chaque lambda
+            double seuil = courbe.seuilsRec(root, size, 0, new long[profondeur][4], sse, variation, elagages);
+            if (!pool.estFeuille(root)) {
+                courbe.ajouterErreur(seuil, LAMBDA_MAX, sse[root], variation);
+            }
+
+            int feuilles = countLeaf(root);
+            long erreur = 0;
+            for (int lambda = 0; lambda <= LAMBDA_MAX; lambda++) {
+                feuilles -= 3 * elagages[lambda];
+                erreur += variation[lambda];
+                courbe.feuilles[lambda] = feuilles;
+                courbe.erreurs[lambda] = erreur;
+            }
+        }
+        return courbe;
+    }
+
+    /**
+     * Seuils de la compression lambda d'un arbre (voir courbeLambda)
+     * Nombre de feuilles et erreur sont donnes pour lambda de 0 a LAMBDA_MAX (au-dela: meme valeur
+     * que LAMBDA_MAX, en dessous de 0: meme valeur que 0). L'erreur est mesuree par rapport aux
+     * feuilles actuelles de l'arbre, c'est-a-dire par rapport a l'image si l'arbre n'est pas compresse.
+     */
+    public class CourbeLambda {
+        private final double[] seuils = new double[pool.capacite()]; // par noeud interne
+        private final int[] fusions = new int[pool.capacite()];      // couleur du noeud une fois elague
+        private final int[] feuilles = new int[LAMBDA_MAX + 1];
+        private final long[] erreurs = new long[LAMBDA_MAX + 1];
+
+        private CourbeLambda(){
+        }
+
+        // Nombre de feuilles apres compressLambda(lambda)
+        public int getLeafCount(int lambda){
+            return feuilles[borner(lambda)];
+        }
+
+        // Somme des carres des ecarts (R, V, B) entre l'arbre et sa version compressee avec lambda
+        public long erreur(int lambda){
+            return erreurs[borner(lambda)];
+        }
+
+        /**
+         * Qualite estimee de l'image compressee avec lambda, sur l'echelle de ImagePNG.computeEQM
+         * (pourcentage arrondi au centieme), sans rendu de l'image
+         * @param lambda
+         * @return
+         */
+        public double eqm(int lambda){
+            double eqm = erreurs[borner(lambda)] / (255.0 * 255.0 * 3.0 * size * size);
+            return Math.ceil(10000 * (1 - eqm)) / 100.0;
+        }
+
+        /**
+         * Arbre compresse pour lambda, construit a partir des seuils sans relire l'image
+         * Identique a une copie de l'arbre sur laquelle on appliquerait compressLambda(lambda)
+         * Complexite: O(taille de l'arbre obtenu)
+         * @param lambda
+         * @return un nouvel arbre (l'arbre d'origine n'est pas modifie)
+         */
+        public RQuadtree materialiser(int lambda){
+            RQuadtree arbre = new RQuadtree(size);
+            if (root != NodePool.NULL) {
+                arbre.root = materialiserRec(arbre.pool, root, lambda);
+            }
+            return arbre;
+        }
+
+        private int materialiserRec(NodePool cible, int node, int lambda){
+            if (pool.estFeuille(node)) {
+                return cible.nouvelleFeuille(pool.couleur(node));
+            }
+            if (seuils[node] < lambda) {
+                return cible.nouvelleFeuille(fusions[node]);
+            }
+            int no = materialiserRec(cible, pool.enfant(node, NodePool.NO), lambda);
+            int ne = materialiserRec(cible, pool.enfant(node, NodePool.NE), lambda);
+            int se = materialiserRec(cible, pool.enfant(node, NodePool.SE), lambda);
+            int so = materialiserRec(cible, pool.enfant(node, NodePool.SO), lambda);
+            return cible.nouveauNoeud(no, ne, se, so);
+        }
+
+        /**
+         * Parcours post-fixe: seuil et couleur elaguee de chaque noeud interne
+         * stats[p] recoit, pour le sous-arbre, les sommes ponderees par l'aire des composantes
+         * (R, V, B) et de leurs carres, d'ou l'erreur du noeud elague (sse) sans revenir aux pixels.
+         * @return le seuil du noeud (-infini pour une feuille)
+         */
+        private double seuilsRec(int node, int taille, int p, long[][] stats, long[] sse, long[] variation, int[] elagages){
+            long[] s = stats[p];
+            if (pool.estFeuille(node)) {
+                int rgb = pool.couleur(node);
+                int r = (rgb >> 16) & 0xFF, v = (rgb >> 8) & 0xFF, b = rgb & 0xFF;
+                long aire = (long) taille * taille;
+                s[0] = aire * r;
+                s[1] = aire * v;
+                s[2] = aire * b;
+                s[3] = aire * (r * r + v * v + b * b);
+                return Double.NEGATIVE_INFINITY;
+            }
+            s[0] = s[1] = s[2] = s[3] = 0;
+            double seuil = Double.NEGATIVE_INFINITY;
+            int[] c = new int[4];
+            for (int k = NodePool.NO; k <= NodePool.SO; k++) {
+                int enfant = pool.enfant(node, k);
+                seuil = Math.max(seuil, seuilsRec(enfant, taille / 2, p + 1, stats, sse, variation, elagages));
+                c[k] = pool.estFeuille(enfant) ? pool.couleur(enfant) : fusions[enfant];
+                long[] sEnfant = stats[p + 1];
+                for (int i = 0; i < 4; i++) s[i] += sEnfant[i];
+            }
+            int avgColor = CouleurMoyenne(c[0], c[1], c[2], c[3]);
+            double avglum = luminance(avgColor);
+            for (int k = NodePool.NO; k <= NodePool.SO; k++) {
+                seuil = Math.max(seuil, Math.abs(avglum - luminance(c[k])));
+            }
+            seuils[node] = seuil;
+            fusions[node] = avgColor;
+
+            // erreur du noeud elague: somme sur ses pixels de |pixel - moyenne|^2
+            int r = (avgColor >> 16) & 0xFF, v = (avgColor >> 8) & 0xFF, b = avgColor & 0xFF;
+            long aire = (long) taille * taille;
+            sse[node] = s[3] - 2 * (r * s[0] + v * s[1] + b * s[2]) + aire * (r * r + v * v + b * b);
+
+            // elague pour lambda > seuil, soit a partir de floor(seuil) + 1
+            int debut = (int) Math.floor(seuil) + 1;
+            if (debut <= LAMBDA_MAX) elagages[debut]++;
+
+            // un enfant elague compte dans l'erreur tant que ce noeud ne l'est pas
+            for (int k = NodePool.NO; k <= NodePool.SO; k++) {
+                int enfant = pool.enfant(node, k);
+                if (!pool.estFeuille(enfant)) {
+                    ajouterErreur(seuils[enfant], (int) Math.floor(seuil), sse[enfant], variation);
+                }
+            }
+            return seuil;
+        }
+
+        // Ajoute l'erreur d'un noeud elague aux lambda de ]seuil, fin]
+        private void ajouterErreur(double seuil, int fin, long erreur, long[] variation){
+            int debut = (int) Math.floor(seuil) + 1;
+            fin = Math.min(fin, LAMBDA_MAX);
+            if (debut <= fin) {
+                variation[debut] += erreur;
+                variation[fin + 1] -= erreur;
+            }
+        }
+
+        private int borner(int lambda){
+            return Math.max(0, Math.min(lambda, LAMBDA_MAX));
+        }
+    }
+
+    /**
+     * Compression a poids crontrole avec Phi > 0
+     * Les sur-feuilles candidates sont rangees dans un tas (degradation, rang prefixe):
+     * on retire toujours la meilleure, et quand un elagage fait du pere une nouvelle
+     * sur-feuille, celle-ci est ajoutee au tas grace au lien parent.
+     * Le resultat est identique a la recherche exhaustive (egalites comprises: a degradation
+     * egale, la sur-feuille la plus a gauche en parcours prefixe NO, NE, SE, SO l'emporte).
+     * DAG: les choix portent sur chaque occurrence, reperee par son chemin depuis la racine;
+     * seuls les noeuds elagues et leurs chemins sont copies (voir copierChemin).
+     * Complexite: O(m log m) avec m le nombre de noeuds (d'occurrences pour un DAG)
+     * @param Phi
+    */
+    public void compressPhi(int Phi){
+        long debut = System.nanoTime();
+        if (reversible != null) {
+            reversible.reglerPhi(Phi);
+        } else if (references != null) {
+            compressPhiPartage(Phi);
+        } else {
+            compressPhiRec(Phi);
+        }
+        dureeCompression = System.nanoTime() - debut;
+    }
+
+    /**
+     * Mode reversible: les elagages replient les noeuds (NodePool.replier) au lieu de liberer
+     * leurs sous-arbres, et chaque compression repart de l'arbre tel qu'il est a l'activation.
+     * Passer d'un parametre a un autre (compressLambda, compressPhi) replie ou deplie seulement
+     * les noeuds qui changent, dans l'ordre ou les compressions les elagueraient:
+     *  - lambda: noeuds internes ranges par seuil (voir courbeLambda), en ordre post-fixe a seuil egal;
+     *    compressLambda(lambda) replie exactement les noeuds de seuil < lambda
+     *  - Phi: ordre des elagages de compressPhi jusqu'a la racine (calcule au premier appel);
+     *    compressPhi(Phi) en replie le plus court prefixe qui laisse au plus Phi feuilles
+     * L'arbre obtenu est identique a celui d'une reconstruction suivie de la compression.
+     * DAG: lambda replie les noeuds partages une seule fois; l'ordre de Phi range les occurrences
+     * (chemins), et seules les occurrences repliees sont copiees avec leur chemin, copies defaites
+     * en revenant a lambda.
+     * Memoire: l'arbre d'origine est garde, plus 12 octets par noeud au plus (couleurs repliees et ordres)
+     * Complexite: O(m) a l'activation; puis O(nombre de noeuds replies ou deplies) par changement
+     *             de parametre pour une meme methode (O(m) en passant de lambda a Phi)
+     */
+    public void activerReversible(){
+        if (reversible == null) {
+            reversible = new Reversible();
+        }
+    }
+
+    /**
+     * Quitte le mode reversible: les sous-arbres des noeuds replies sont liberes
+     * et l'arbre garde sa compression actuelle
+     * Complexite: O(nombre de noeuds liberes)
+     */
+    public void desactiverReversible(){
+        if (reversible == null) return;
+        Reversible etat = reversible;
+        reversible = null;
+        // les enfants passent avant leur pere dans chaque ordre
+        if (etat.courant == null) {
+            for (int i = 0; i < etat.nbCourant; i++) elaguerReplie(noeud(etat.cheminsPhi[i]));
+        } else {
+            for (int i = 0; i < etat.nbCourant; i++) elaguerReplie(etat.courant[i]);
+        }
+        if (occurrences != null) compterOccurrences();
+    }
+
+    // Rend definitif le repli d'un noeud (DAG: ses enfants ne sont liberes que s'ils n'ont plus d'autre pere)
+    private void elaguerReplie(int node){
+        if (references != null) {
+            for (int k = NodePool.NO; k <= NodePool.SO; k++) {
+                dereferencer(pool.enfant(node, k));
+            }
+            pool.detacherEnfants(node);
+        }
+        pool.elaguer(node, pool.couleur(node));
+    }
+
+    // Etat du mode reversible
+    private class Reversible {
+        // couleur de chaque noeud interne une fois replie (independante du parametre)
+        int[] fusions;
+        // ordre de repli pour lambda, et nombre de noeuds de seuil < lambda pour chaque lambda
+        final int[] ordreLambda;
+        final int[] finLambda = new int[LAMBDA_MAX + 1];
+        // ordre de repli de compressPhi (calcule au premier appel); DAG: chemins des occurrences
+        int[] ordrePhi;
+        long[] cheminsPhi;
+        int feuillesInitiales;
+        // noeuds replies: prefixe de longueur nbCourant de l'ordre courant (null: cheminsPhi)
+        int[] courant;
+        int nbCourant;
+        // journal des elagages pendant le calcul de ordrePhi
+        int[] journal;
+        int nbJournal;
+        // DAG: copies faites pour replier les occurrences de cheminsPhi, 4 cases par copie
+        // (copie, original, pere, indice de l'enfant)
+        int[] copies = new int[16];
+        int nbCopies;
+        // derniere compression demandee (voir reprendre)
+        boolean regle, phi;
+        int parametre;
+
+        Reversible(){
+            CourbeLambda courbe = courbeLambda();
+            fusions = courbe.fusions;
+            feuillesInitiales = (root == NodePool.NULL) ? 0 : countLeaf(root);
+
+            // tri par denombrement sur le premier lambda qui elague chaque noeud (floor(seuil) + 1);
+            // le parcours post-fixe place les enfants avant leur pere a seuil egal
+            // (un noeud partage n'est range qu'une fois: le replier le replie dans toutes ses occurrences)
+            int[] debuts = new int[LAMBDA_MAX + 2];
+            if (root != NodePool.NULL) compterSeuils(root, courbe.seuils, debuts, new BitSet());
+            for (int lambda = 1; lambda <= LAMBDA_MAX + 1; lambda++) debuts[lambda] += debuts[lambda - 1];
+            for (int lambda = 0; lambda <= LAMBDA_MAX; lambda++) finLambda[lambda] = debuts[lambda + 1];
+            ordreLambda = new int[debuts[LAMBDA_MAX + 1]];
+            if (root != NodePool.NULL) rangerSeuils(root, courbe.seuils, debuts, ordreLambda, new BitSet());
+            courant = ordreLambda;
+        }
+
+        // debuts[b + 1] += 1 pour chaque noeud interne elague a partir de lambda = b
+        private void compterSeuils(int node, double[] seuils, int[] debuts, BitSet vus){
+            if (pool.estFeuille(node) || vus.get(node)) return;
+            vus.set(node);
+            for (int k = NodePool.NO; k <= NodePool.SO; k++) compterSeuils(pool.enfant(node, k), seuils, debuts, vus);
+            debuts[Math.min((int) Math.floor(seuils[node]) + 1, LAMBDA_MAX) + 1]++;
+        }
+
+        private void rangerSeuils(int node, double[] seuils, int[] debuts, int[] ordre, BitSet vus){
+            if (pool.estFeuille(node) || vus.get(node)) return;
+            vus.set(node);
+            for (int k = NodePool.NO; k <= NodePool.SO; k++) rangerSeuils(pool.enfant(node, k), seuils, debuts, ordre, vus);
+            ordre[debuts[Math.min((int) Math.floor(seuils[node]) + 1, LAMBDA_MAX)]++] = node;
+        }
+
+        void reglerLambda(int lambda){
+            regle = true;
+            phi = false;
+            parametre = lambda;
+            regler(ordreLambda, finLambda[Math.max(0, Math.min(lambda, LAMBDA_MAX))]);
+        }
+
+        void reglerPhi(int Phi){
+            regle = true;
+            phi = true;
+            parametre = Phi;
+            // chaque repli retire 3 feuilles: plus petit k tel que feuillesInitiales - 3k <= Phi
+            int k = (feuillesInitiales <= Phi) ? 0 : (feuillesInitiales - Phi + 2) / 3;
+            if (references != null) {
+                if (cheminsPhi == null) {
+                    toutDeplier();
+                    cheminsPhi = ordrePhiPartage();
+                }
+                reglerChemins(Math.min(k, cheminsPhi.length));
+                return;
+            }
+            if (ordrePhi == null) {
+                // elagages de compressPhi jusqu'a la racine, notes puis defaits
+                toutDeplier();
+                journal = new int[ordreLambda.length];
+                nbJournal = 0;
+                compressPhiRec(1);
+                ordrePhi = Arrays.copyOf(journal, nbJournal);
+                journal = null;
+                courant = ordrePhi;
+                nbCourant = ordrePhi.length;
+            }
+            regler(ordrePhi, Math.min(k, ordrePhi.length));
+        }
+
+        // Reapplique la derniere compression d'un autre etat (arbre modifie par activerSuiviErreur)
+        void reprendre(Reversible ancien){
+            if (!ancien.regle) return;
+            if (ancien.phi) {
+                reglerPhi(ancien.parametre);
+            } else {
+                reglerLambda(ancien.parametre);
+            }
+        }
+
+        // Replie exactement les k premiers noeuds de ordre (depliant ou repliant ce qui change)
+        void regler(int[] ordre, int k){
+            if (ordre != courant) {
+                // deux ordres differents: on repart de l'arbre deplie
+                toutDeplier();
+                courant = ordre;
+            }
+            for (int i = nbCourant - 1; i >= k; i--) deplier(ordre[i]);
+            for (int i = nbCourant; i < k; i++) elaguer(ordre[i], fusions[ordre[i]]);
+            nbCourant = k;
+        }
+
+        // DAG: replie exactement les k premieres occurrences de cheminsPhi, en copiant leurs chemins
+        void reglerChemins(int k){
+            if (courant != null) {
+                toutDeplier();
+                courant = null;
+            }
+            for (int i = nbCourant - 1; i >= k; i--) deplier(noeud(cheminsPhi[i]));
+            for (int i = nbCourant; i < k; i++) {
+                int node = copierChemin(cheminsPhi[i]);
+                elaguer(node, fusions[node]);
+            }
+            nbCourant = k;
+        }
+
+        // Deplie tout (et remet les noeuds partages a la place des copies de cheminsPhi)
+        void toutDeplier(){
+            if (courant == null) {
+                reglerChemins(0);
+                restaurerCopies();
+                courant = ordreLambda;
+            } else {
+                regler(courant, 0);
+            }
+        }
+
+        void noterCopie(int copie, int original, int pere, int k){
+            if (4 * nbCopies == copies.length) copies = Arrays.copyOf(copies, 2 * copies.length);
+            int i = 4 * nbCopies++;
+            copies[i] = copie;
+            copies[i + 1] = original;
+            copies[i + 2] = pere;
+            copies[i + 3] = k;
+        }
+
+        // Defait les copies dans l'ordre inverse: le pere d'une copie est l'original ou une copie plus ancienne,
+        // et une copie retrouve les enfants de son original une fois les copies suivantes defaites
+        private void restaurerCopies(){
+            for (int i = 4 * (nbCopies - 1); i >= 0; i -= 4) {
+                int copie = copies[i], original = copies[i + 1];
+                pool.setEnfant(copies[i + 2], copies[i + 3], original);
+                references[original]++;
+                if (occurrences != null) occurrences[original]++;
+                for (int k = NodePool.NO; k <= NodePool.SO; k++) {
+                    references[pool.enfant(copie, k)]--;
+                }
+                references[copie] = 0;
+                pool.libererNoeud(copie);
+            }
+            nbCopies = 0;
+        }
+
+        /**
+         * Ordre des elagages de compressPhi jusqu'a la racine sur un DAG, sans modifier l'arbre
+         * (deplie): la couleur d'une occurrence repliee ne depend que de son noeud (fusions),
+         * une occurrence devient sur-feuille quand ses enfants internes ont tous ete elagues.
+         * @return les chemins des occurrences, dans l'ordre des elagages
+         */
+        private long[] ordrePhiPartage(){
+            long[] ordre = new long[(feuillesInitiales - 1) / 3];
+            int n = 0;
+            PriorityQueue<SurFeuille> tas = new PriorityQueue<>();
+            // nombre d'enfants deja elagues des occurrences qui ont des enfants internes
+            Map<Long, Integer> elagues = new HashMap<>();
+            if (root != NodePool.NULL) surFeuillesPartage(root, 1L, tas);
+            while (!tas.isEmpty()) {
+                SurFeuille best = tas.poll();
+                ordre[n++] = best.chemin;
+                if (best.chemin == 1L) continue;
+                long cheminPere = best.chemin >>> 2;
+                int pere = noeud(cheminPere);
+                int internes = 0;
+                for (int k = NodePool.NO; k <= NodePool.SO; k++) {
+                    if (!pool.estFeuille(pool.enfant(pere, k))) internes++;
+                }
+                int faits = elagues.merge(cheminPere, 1, Integer::sum);
+                if (faits == internes) {
+                    elagues.remove(cheminPere);
+                    tas.add(surFeuilleRepliee(pere, cheminPere));
+                }
+            }
+            return ordre;
+        }
+
+        // Sur-feuille d'une occurrence dont les enfants internes seraient replies
+        private SurFeuille surFeuilleRepliee(int node, long chemin){
+            int avgColor = fusions[node];
+            double avglum = luminance(avgColor);
+            double maxDeg = 0;
+            for (int k = NodePool.NO; k <= NodePool.SO; k++) {
+                int enfant = pool.enfant(node, k);
+                int c = pool.estFeuille(enfant) ? pool.couleur(enfant) : fusions[enfant];
+                maxDeg = Math.max(maxDeg, Math.abs(avglum - luminance(c)));
+            }
+            return new SurFeuille(node, cle(chemin), maxDeg, avgColor, chemin);
+        }
+    }
+
+    private void compressPhiRec(int Phi){
+        // Compter le nombre actuel de feuilles
+        int currentLeaves =  countLeaf(root);
+        
+        // si il y a deja moins de feuilles que phi, on fait rien 
+        if(currentLeaves <= Phi){
+            return;
+        }
+
+        // Parents, rangs prefixes et sur-feuilles initiales en un seul parcours
+        int[] parents = new int[pool.capacite()];
+        int[] rangs = new int[pool.capacite()];
+        PriorityQueue<SurFeuille> tas = new PriorityQueue<>();
+        initSurFeuilles(root, NodePool.NULL, 0, parents, rangs, tas);
+        
+        //compression iterative jusqu'a atteindre phi feuille
+        while (currentLeaves > Phi) {
+            //Retirer la sur-feuille avec la plus petite dégradation X
+            SurFeuille best = tas.poll();
+
+            if(best ==null){
+                break;
+            }
+            //Elaguage de l'arbre (cette sur-feuille) 
+            Elarguage(best);
+            // chaque elarguage reduit de 3 feuilles (4 feuilles -> 1 feuille)
+            currentLeaves -= 3; //Mettre à jour le nombre de feuilles (diminue de 3)
+
+            // le pere devient-il a son tour une sur-feuille ?
+            int pere = parents[best.parent];
+            if(pere != NodePool.NULL && estSurFeuille(pere)){
+                tas.add(creerSurFeuille(pere, rangs[pere]));
+            }
+        }  
+    }
+
+
+    // compressPhi sur un DAG: memes choix que sur l'arbre, une entree du tas par occurrence
+    private void compressPhiPartage(int Phi){
+        int currentLeaves = countLeaf(root);
+        if (currentLeaves <= Phi) {
+            return;
+        }
+        PriorityQueue<SurFeuille> tas = new PriorityQueue<>();
+        surFeuillesPartage(root, 1L, tas);
+        while (currentLeaves > Phi) {
+            SurFeuille best = tas.poll();
+            if (best == null) {
+                break;
+            }
+            // seule cette occurrence est elaguee: son chemin est copie s'il est partage
+            elaguer(copierChemin(best.chemin), best.avgColor);
+            currentLeaves -= 3;
+            if (best.chemin != 1L) {
+                long cheminPere = best.chemin >>> 2;
+                int pere = noeud(cheminPere);
+                if (estSurFeuille(pere)) {
+                    tas.add(surFeuilleOccurrence(pere, cheminPere));
+                }
+            }
+        }
+    }
+
+    // Ajoute au tas les sur-feuilles de chaque occurrence du DAG, reperees par leur chemin
+    private void surFeuillesPartage(int node, long chemin, PriorityQueue<SurFeuille> tas){
+        if (pool.estFeuille(node)) return;
+        if (estSurFeuille(node)) {
+            tas.add(surFeuilleOccurrence(node, chemin));
+            return;
+        }
+        for (int k = NodePool.NO; k <= NodePool.SO; k++) {
+            surFeuillesPartage(pool.enfant(node, k), (chemin << 2) | k, tas);
+        }
+    }
+
+    // Classe interne representant une sur-feuille 
+    private class SurFeuille implements Comparable<SurFeuille> {
+        int parent;
+        long ordre;         // rang prefixe du noeud (DAG: voir cle)
+        double degradation;
+        int avgColor;       //couleur moyenne (RGB compacte)
+        long chemin;        // DAG: chemin de l'occurrence (voir noeud)
+
+        SurFeuille(int parent, long ordre, double deg, int col){
+            this(parent, ordre, deg, col, 0);
+        }
+
+        SurFeuille(int parent, long ordre, double deg, int col, long chemin){
+            this.parent = parent; 
+            this.ordre = ordre;
+            this.degradation = deg; 
+            this.avgColor = col; 
+            this.chemin = chemin;
+        }
+
+        // plus petite degradation d'abord, puis la plus a gauche en parcours prefixe
+        @Override
+        public int compareTo(SurFeuille autre){
+            int cmp = Double.compare(degradation, autre.degradation);
+            return (cmp != 0) ? cmp : Long.compare(ordre, autre.ordre);
+        }
+    }
+
+    /**
+     * Parcours prefixe qui renseigne les liens parent et les rangs,
+     * et ajoute au tas toutes les sur-feuilles de l'arbre.
+     * @param node
+     * @param pere
+     * @param rang rang prefixe du noeud
+     * @param parents pere de chaque noeud (indexe par noeud)
+     * @param rangs rang prefixe de chaque noeud (indexe par noeud)
+     * @param tas
+     * @return le rang suivant le sous-arbre
+     */
+    private int initSurFeuilles(int node, int pere, int rang, int[] parents, int[] rangs, PriorityQueue<SurFeuille> tas){
+        if(node == NodePool.NULL) return rang;
+        parents[node] = pere;
+        rangs[node] = rang++;
+        if(pool.estFeuille(node)) return rang;
+
+        if(estSurFeuille(node)){
+            tas.add(creerSurFeuille(node, rangs[node]));
+        }
+        for(int k = NodePool.NO; k <= NodePool.SO; k++){
+            rang = initSurFeuilles(pool.enfant(node, k), node, rang, parents, rangs, tas);
+        }
+        return rang;
+    }
+
+    // Un noeud est une sur-feuille si ses 4 enfants sont des feuilles
+    private boolean estSurFeuille(int node){
+        return pool.estFeuille(pool.enfant(node, NodePool.NO)) && pool.estFeuille(pool.enfant(node, NodePool.NE))
+            && pool.estFeuille(pool.enfant(node, NodePool.SE)) && pool.estFeuille(pool.enfant(node, NodePool.SO));
+    }
+
+    /**
+     * Calcule la couleur moyenne et la degradation de luminance d'une sur-feuille
+     * @param node
+     * @param ordre rang prefixe du noeud (departage des egalites)
+     * @return
+     */
+    private SurFeuille creerSurFeuille(int node, int ordre){
+        int avgColor = CouleurMoyenne(node);
+        return new SurFeuille(node, ordre, degradation(node, avgColor), avgColor);
+    }
+
+    // Sur-feuille d'une occurrence du DAG
+    private SurFeuille surFeuilleOccurrence(int node, long chemin){
+        int avgColor = CouleurMoyenne(node);
+        return new SurFeuille(node, cle(chemin), degradation(node, avgColor), avgColor, chemin);
+    }
+
+    // Couleur moyenne des 4 enfants d'une sur-feuille
+    private int CouleurMoyenne(int node){
+        return CouleurMoyenne(pool.couleur(pool.enfant(node, NodePool.NO)), pool.couleur(pool.enfant(node, NodePool.NE)),
+                              pool.couleur(pool.enfant(node, NodePool.SE)), pool.couleur(pool.enfant(node, NodePool.SO)));
+    }
+
+    /**
+     * La dégradation mesure a quel point on perd de la qualite en remplaçant les 4 couleurs par leur moyenne.
+     * X = max(|Lm - Li|) pour i = NO, NE, SE, SO
+     * @param node sur-feuille
+     * @param avgColor couleur moyenne de ses enfants
+     * @return
+     */
+    private double degradation(int node, int avgColor){
+        // calcul la luminance moyenne 
+        double avglum = luminance(avgColor); 
+
+        double maxDeg = 0; 
+        for(int k = NodePool.NO; k <= NodePool.SO; k++){
+            maxDeg = Math.max(maxDeg, Math.abs(avglum - luminance(pool.couleur(pool.enfant(node, k)))));
+        }
+        return maxDeg;
+    }
+
+    /**
+     * Elarguer une sur-feuille sur place (le noeud devient une feuille de couleur moyenne)
+     * Les 4 anciennes feuilles sont rendues a la reserve pour etre recyclees
+     * Complexite: O(1)
+     * @param surFe
+     */
+    private void Elarguage(SurFeuille surFe){
+        elaguer(surFe.parent, surFe.avgColor);
+    }
+
+    /**
+     * Elague une sur-feuille (voir NodePool.elaguer), en mettant a jour l'erreur si elle est suivie
+     * @param node sur-feuille
+     * @param avgColor couleur de la feuille obtenue
+     */
+    private void elaguer(int node, int avgColor){
+        if (stats != null && !pool.estFeuille(node)) {
+            // DAG: chaque occurrence du noeud couvre les memes sommes (voir activerSuiviErreur)
+            int n = 5 * node, fois = nbOccurrences(node);
+            long erreur = 0;
+            Arrays.fill(stats, n, n + 5, 0);
+            for (int k = NodePool.NO; k <= NodePool.SO; k++) {
+                int enfant = pool.enfant(node, k);
+                erreur -= erreurFeuille(enfant, pool.couleur(enfant));
+                for (int i = 0; i < 5; i++) stats[n + i] += stats[5 * enfant + i];
+            }
+            erreur += erreurFeuille(node, avgColor);
+            sse += fois * erreur;
+        }
+        if (reversible != null) {
+            // mode reversible: le sous-arbre est garde (et l'elagage note pendant le calcul de l'ordre de Phi)
+            pool.replier(node, avgColor);
+            if (reversible.journal != null) reversible.journal[reversible.nbJournal++] = node;
+            return;
+        }
+        if (references != null && !pool.estFeuille(node)) {
+            // DAG: les enfants ne sont liberes que s'ils n'ont plus d'autre pere
+            for (int k = NodePool.NO; k <= NodePool.SO; k++) {
+                int enfant = pool.enfant(node, k);
+                if (occurrences != null) occurrences[enfant] -= occurrences[node];
+                dereferencer(enfant);
+            }
+            pool.detacherEnfants(node);
+        }
+        pool.elaguer(node, avgColor);
+    }
+
+    // Nombre d'occurrences d'un noeud (1 hors DAG)
+    private int nbOccurrences(int node){
+        return (occurrences == null) ? 1 : occurrences[node];
+    }
 
-        // Constructueur d'une feuille 
-        Node (Color c){
-            this.color = c; 
-            this.isLeaf = true;
-            this.no = this.ne = this.se = this.so = null;
+    // Deplie un noeud replie en mode reversible (inverse de elaguer)
+    private void deplier(int node){
+        if (stats != null) {
+            long erreur = -erreurFeuille(node, pool.couleur(node));
+            for (int k = NodePool.NO; k <= NodePool.SO; k++) {
+                int enfant = pool.enfant(node, k);
+                erreur += erreurFeuille(enfant, pool.couleur(enfant));
+            }
+            sse += nbOccurrences(node) * erreur;
         }
+        pool.deplier(node);
+    }
+
+    // Somme des carres des ecarts entre les pixels d'origine du bloc d'un noeud et la couleur rgb
+    private long erreurFeuille(int node, int rgb){
+        int n = 5 * node;
+        long r = (rgb >> 16) & 0xFF, v = (rgb >> 8) & 0xFF, b = rgb & 0xFF;
+        return stats[n + 4] - 2 * (r * stats[n + 1] + v * stats[n + 2] + b * stats[n + 3])
+               + stats[n] * (r * r + v * v + b * b);
+    }
 
-        // Constructeur pour un noeud interne
-        Node(Node no, Node ne, Node se, Node so){
-            this.no = no; 
-            this.ne = ne;
-            this.se = se;
-            this.so = so; 
-             
-            this.isLeaf = false; 
+    // Sommes des pixels d'origine sous chaque feuille (activerSuiviErreur)
+    private void statsRec(int node, int[] pixels, int x, int y, int taille){
+        if (!pool.estFeuille(node) || pool.estReplie(node)) {
+            int halfSize = taille / 2;
+            statsRec(pool.enfant(node, NodePool.NO), pixels, x, y, halfSize);
+            statsRec(pool.enfant(node, NodePool.NE), pixels, x + halfSize, y, halfSize);
+            statsRec(pool.enfant(node, NodePool.SE), pixels, x + halfSize, y + halfSize, halfSize);
+            statsRec(pool.enfant(node, NodePool.SO), pixels, x, y + halfSize, halfSize);
+            if (pool.estFeuille(node)) {
+                // noeud replie: ses enfants gardes ne comptent pas dans l'erreur, lui si
+                int couleur = pool.couleur(node);
+                pool.deplier(node);
+                elaguer(node, couleur);
+            }
+            return;
+        }
+        long sr = 0, sv = 0, sb = 0, s2 = 0;
+        for (int j = y; j < y + taille; j++) {
+            for (int i = j * size + x, fin = i + taille; i < fin; i++) {
+                int rgb = pixels[i];
+                int r = (rgb >> 16) & 0xFF, v = (rgb >> 8) & 0xFF, b = rgb & 0xFF;
+                sr += r;
+                sv += v;
+                sb += b;
+                s2 += r * r + v * v + b * b;
+            }
         }
+        int n = 5 * node;
+        stats[n] = (long) taille * taille;
+        stats[n + 1] = sr;
+        stats[n + 2] = sv;
+        stats[n + 3] = sb;
+        stats[n + 4] = s2;
+        sse += erreurFeuille(node, pool.couleur(node));
     }
-    // racine et taille du RQuadtree 
-    private Node root;  
-    private int size;  
+    
+    
+    //----------METHODES RECURSIVES ASSOCIEES AUX FONCTIONNALITES DE RQuadtree ------------------------
 
     /**
-     * Constructeur: construit le R-Quadtree a partir d'une image
-     * Complexite:  O(n^2 log(n)) pire des ces 
-     *              O(n^2) meilleur des cas (avec l'optimisation de fusion)
-     *              avec n = largeur/hauteur de l'image et log(n): hauteur de l'arbre 
-     * @param image
+     * construire l'arbre recursivement a partir de l'image 
+     * @param pixels pixels de l'image, ligne par ligne (indice y*largeur+x)
+     * @param largeur largeur d'une ligne de pixels
+     * @param x
+     * @param y
+     * @param taille
+     * @return Le noeud racine du sous-arbre
      */
-    public RQuadtree(ImagePNG image) { 
-        this.size = image.width();
-        // Verifier que la taille est une puissance de 2 
-        if (!isPowerOfTwo(size) || (size != image.height())) {
-        return; 
+    private static int buildTree(NodePool pool, int[] pixels, int largeur, int x, int y,int taille ){
+        if(taille == 1){
+            //pixel unique
+            return pool.nouvelleFeuille(pixels[y*largeur + x]);
         }
+        // Cas Recursif
+        // 1. Diviser la region en 4
+        // 2. Construire recursivement sur chaque sous-arbre
+        // 3. verifier si tout les pixels ont la meme couleur
+        //      si oui, creer une feuille sinon creer un noeud interne 
         
-        // construction de l'arbre recursivement 
-        this.root = buildTree(image,0,0, size);
+        int halfSize = taille / 2; 
+        int no = buildTree(pool, pixels, largeur, x, y, halfSize);
+        int ne = buildTree(pool, pixels, largeur, x + halfSize, y, halfSize);
+        int se = buildTree(pool, pixels, largeur, x + halfSize, y + halfSize, halfSize);
+        int so = buildTree(pool, pixels, largeur, x , y + halfSize, halfSize);
+        return assembler(pool, no, ne, se, so);
     }
 
-        /**
-     * Conversion du R-quadtree en objet ImagePNG 
-     * Complexité : O(n^2) pour créer et remplir l'image
-     * @return imagePNG reconstituée à partir de l'arbre
+    /**
+     * Cree le noeud pere de 4 sous-arbres deja construits
+     * @return une feuille si les 4 enfants sont des feuilles de meme couleur, un noeud interne sinon
      */
-    public ImagePNG toPNG() {
-        try {
-            // Créer une BufferedImage vide de la bonne taille
-            BufferedImage buffImg = new BufferedImage( size, size, java.awt.image.BufferedImage.TYPE_INT_RGB);
-            
-            // Initialiser tous les pixels en noir (ou n'importe quelle couleur)
-            for (int i = 0; i < size; i++) {
-                for (int j = 0; j < size; j++) {
-                    buffImg.setRGB(i, j, Color.BLACK.getRGB());
-                }
-            }
-            
-            // Sauvegarder temporairement dans un fichier unique
-            String tempFileName = "temp_quadtree_" + System.currentTimeMillis() + ".png";
-            File tempFile = new File(tempFileName);
-            ImageIO.write(buffImg, "png", tempFile);
-            
-            // Charger via ImagePNG
-            ImagePNG img = new ImagePNG(tempFileName);
-            
-            // Remplir l'image récursivement à partir de l'arbre
-            toPNG_Rec(img, root, 0, 0, size);
-            
-            // Nettoyer le fichier temporaire
-            tempFile.delete();
-            
-            
-            return img;  
-        } catch (Exception e) {
-            System.err.println("Erreur" + e.getMessage());
-            e.printStackTrace();
-            return null;
+    private static int assembler(NodePool pool, int no, int ne, int se, int so){
+        // verifier si tous les enfants sont des feuilles et ont la meme couleurs  
+        // (les 4 feuilles fusionnent: la premiere est gardee, les 3 autres sont recyclees)
+        if(pool.estFeuille(no) && pool.estFeuille(ne) && pool.estFeuille(so) && pool.estFeuille(se) && 
+            pool.couleur(no) == pool.couleur(ne) && pool.couleur(ne) == pool.couleur(so) && pool.couleur(so) == pool.couleur(se)){
+                pool.libererSousArbre(ne);
+                pool.libererSousArbre(se);
+                pool.libererSousArbre(so);
+                return no;
         }
+        return pool.nouveauNoeud(no, ne, se, so);
     }
 
-    // Représentation textuelle parenthésée
-    @Override
-    public String toString() {
-        return toStringRec(root);
+    // buildTree avec partage des sous-arbres identiques (voir construirePartage)
+    private static int buildTreePartage(NodePool pool, TableNoeuds table, int[] pixels, int largeur, int x, int y, int taille){
+        if (taille == 1) {
+            return table.feuille(pixels[y*largeur + x]);
+        }
+        int halfSize = taille / 2;
+        int no = buildTreePartage(pool, table, pixels, largeur, x, y, halfSize);
+        int ne = buildTreePartage(pool, table, pixels, largeur, x + halfSize, y, halfSize);
+        int se = buildTreePartage(pool, table, pixels, largeur, x + halfSize, y + halfSize, halfSize);
+        int so = buildTreePartage(pool, table, pixels, largeur, x, y + halfSize, halfSize);
+        // feuilles canoniques: 4 feuilles de meme couleur sont le meme noeud
+        if (no == ne && ne == se && se == so && pool.estFeuille(no)) {
+            return no;
+        }
+        return table.noeud(no, ne, se, so);
+    }
+
+    // Construction d'un quadrant (de cote <= seuil) dans sa propre reserve de noeuds
+    private static class Construction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final int[] pixels;
+        final int largeur, x, y, taille;
+        NodePool pool;
+        int racine;
+
+        Construction(int[] pixels, int largeur, int x, int y, int taille){
+            this.pixels = pixels;
+            this.largeur = largeur;
+            this.x = x;
+            this.y = y;
+            this.taille = taille;
+        }
+
+        @Override
+        protected void compute(){
+            pool = new NodePool(Math.min(taille * taille, 4096));
+            racine = buildTree(pool, pixels, largeur, x, y, taille);
+        }
     }
 
     /**
-     * Compression a qualite controlee avce 0 < lambda < 255
-     * @param Lambda
+     * Construction parallele: les quadrants de cote <= seuil sont construits en parallele,
+     * puis recopies dans la reserve de l'arbre en remontant les niveaux superieurs
+     * (avec la meme fusion des feuilles de meme couleur que buildTree).
+     * @param pixels
+     * @param parallelisme
+     * @param seuil
+     * @return la racine de l'arbre
      */
-    public void compressLambda(int Lambda) {
-        root = compressLambdaRec(root, Lambda);
+    private int buildTreeParallele(int[] pixels, int parallelisme, int seuil){
+        List<Construction> taches = new ArrayList<>();
+        planifier(pixels, 0, 0, size, seuil, taches);
+
+        RecursiveAction tout = new RecursiveAction() {
+            @Override
+            protected void compute(){
+                invokeAll(taches);
+            }
+        };
+        if (parallelisme <= 0) {
+            ForkJoinPool.commonPool().invoke(tout);
+        } else {
+            ForkJoinPool fj = new ForkJoinPool(parallelisme);
+            try {
+                fj.invoke(tout);
+            } finally {
+                fj.shutdown();
+            }
+        }
+        return greffer(taches, new int[1], size, seuil);
     }
 
-    /**
-     * Compression a poids crontrole avec Phi > 0
-     * @param Phi
-    */
-    public void compressPhi(int Phi){
-        // Compter le nombre actuel de feuilles
-        int currentLeaves =  countLeaf(root);
-        
-        // si il y a deja moins de feuilles que phi, on fait rien 
-        if(currentLeaves <= Phi){
+    // Decoupe la region en quadrants de cote <= seuil, dans l'ordre NO, NE, SE, SO
+    private void planifier(int[] pixels, int x, int y, int taille, int seuil, List<Construction> taches){
+        if (taille <= seuil) {
+            taches.add(new Construction(pixels, size, x, y, taille));
             return;
         }
-        
-        //Trouver la "sur-feuille" avec la plus petite dégradation X
-        //compression iterative jusqu'a atteindre phi feuille
-        while (currentLeaves > Phi) {
-            SurFeuille best = BestSurfeuille(root);
+        int halfSize = taille / 2;
+        planifier(pixels, x, y, halfSize, seuil, taches);
+        planifier(pixels, x + halfSize, y, halfSize, seuil, taches);
+        planifier(pixels, x + halfSize, y + halfSize, halfSize, seuil, taches);
+        planifier(pixels, x, y + halfSize, halfSize, seuil, taches);
+    }
 
-            if(best ==null){
-                break;
+    // Recopie les quadrants construits (dans l'ordre de planifier) et assemble les niveaux superieurs
+    private int greffer(List<Construction> taches, int[] suivante, int taille, int seuil){
+        if (taille <= seuil) {
+            Construction t = taches.get(suivante[0]++);
+            return copier(t.pool, t.racine);
+        }
+        int halfSize = taille / 2;
+        int no = greffer(taches, suivante, halfSize, seuil);
+        int ne = greffer(taches, suivante, halfSize, seuil);
+        int se = greffer(taches, suivante, halfSize, seuil);
+        int so = greffer(taches, suivante, halfSize, seuil);
+        return assembler(pool, no, ne, se, so);
+    }
+
+    // Assemble les niveaux au-dessus des tuiles (grille n x n de racines), dans l'ordre NO, NE, SE, SO
+    private static int assemblerTuiles(NodePool pool, int[] racines, int n, int i, int j, int cote){
+        if (cote == 1) {
+            return racines[j * n + i];
+        }
+        int halfSize = cote / 2;
+        int no = assemblerTuiles(pool, racines, n, i, j, halfSize);
+        int ne = assemblerTuiles(pool, racines, n, i + halfSize, j, halfSize);
+        int se = assemblerTuiles(pool, racines, n, i + halfSize, j + halfSize, halfSize);
+        int so = assemblerTuiles(pool, racines, n, i, j + halfSize, halfSize);
+        return assembler(pool, no, ne, se, so);
+    }
+
+    // Partage post-fixe: remplace chaque enfant par son representant, puis cherche celui du noeud
+    private int partagerRec(TableNoeuds table, int node){
+        if (!pool.estFeuille(node)) {
+            for (int k = NodePool.NO; k <= NodePool.SO; k++) {
+                pool.setEnfant(node, k, partagerRec(table, pool.enfant(node, k)));
             }
-            //Elaguage de l'arbre (cette sur-feuille) 
-            root = Elarguage(root, best);
-            // chaque elarguage reduit de 3 feuilles (4 feuilles -> 1 feuille)
-            currentLeaves -= 3; //Mettre à jour le nombre de feuilles (diminue de 3)
-        }  
+        }
+        int representant = table.canonique(node);
+        if (representant != node) {
+            pool.libererNoeud(node); // ses enfants sont partages avec le representant
+        }
+        return representant;
     }
 
+    // Nombre de peres de chaque noeud du DAG (la racine en a un)
+    private void compterReferences(){
+        references = new int[pool.capacite()];
+        if (root != NodePool.NULL) {
+            references[root] = 1;
+            compterReferencesRec(root);
+        }
+    }
 
-    // Classe interne representant une sur-feuille 
-    private class SurFeuille {
-        Node parent;
-        double degradation;
-        Color avgColor;     //couleur moyenne 
+    private void compterReferencesRec(int node){
+        if (pool.estFeuille(node)) return;
+        for (int k = NodePool.NO; k <= NodePool.SO; k++) {
+            int enfant = pool.enfant(node, k);
+            if (references[enfant]++ == 0) compterReferencesRec(enfant);
+        }
+    }
 
-        SurFeuille(Node parent, double deg, Color col){
-            this.parent = parent; 
-            this.degradation = deg; 
-            this.avgColor = col; 
+    // Retire une reference a un noeud du DAG, et le libere (avec ce qui n'est plus reference) s'il n'en a plus
+    private void dereferencer(int node){
+        if (--references[node] > 0) return;
+        if (!pool.estFeuille(node)) {
+            for (int k = NodePool.NO; k <= NodePool.SO; k++) {
+                dereferencer(pool.enfant(node, k));
+            }
+        }
+        pool.libererNoeud(node);
+    }
+
+    // Nombre d'occurrences de chaque noeud du DAG: les peres (ordre postfixe inverse) avant leurs enfants
+    private void compterOccurrences(){
+        occurrences = new int[pool.capacite()];
+        if (root == NodePool.NULL) return;
+        int[] ordre = new int[pool.nbNoeuds()];
+        int n = ordonnerRec(root, new BitSet(), ordre, 0);
+        occurrences[root] = 1;
+        for (int i = n - 1; i >= 0; i--) {
+            int node = ordre[i];
+            if (pool.estFeuille(node)) continue;
+            for (int k = NodePool.NO; k <= NodePool.SO; k++) {
+                occurrences[pool.enfant(node, k)] += occurrences[node];
+            }
         }
     }
 
+    // Ordre postfixe des noeuds distincts du DAG
+    private int ordonnerRec(int node, BitSet vus, int[] ordre, int n){
+        if (vus.get(node)) return n;
+        vus.set(node);
+        if (!pool.estFeuille(node)) {
+            for (int k = NodePool.NO; k <= NodePool.SO; k++) {
+                n = ordonnerRec(pool.enfant(node, k), vus, ordre, n);
+            }
+        }
+        ordre[n] = node;
+        return n + 1;
+    }
+
     /**
-     * Methode permettant de recherche la sur-feuille avec la plus petite 
-     * dégradation de luminance dans tout l'arbre.
-     * @param node
-     * @return
+     * Sommes des pixels d'origine sous chaque feuille d'un DAG (activerSuiviErreur), occurrence par occurrence
+     * Une feuille deja vue dont les sommes different est copiee, ainsi que chaque noeud deja vu dont
+     * un enfant a ete copie pour cette occurrence; un noeud vu pour la premiere fois prend les enfants
+     * de son occurrence.
+     * @param vus noeuds dont une occurrence a deja ete parcourue
+     * @return le noeud de cette occurrence (node ou sa copie, que le pere doit referencer)
      */
-    private SurFeuille BestSurfeuille(Node node){
-        if(node == null || node.isLeaf){
-            return null;
+    private int statsPartageRec(int node, int[] pixels, int x, int y, int taille, BitSet vus){
+        if (pool.estFeuille(node)) {
+            long[] sommes = sommesBloc(pixels, x, y, taille);
+            if (vus.get(node) && !memesSommes(node, sommes)) {
+                node = pool.nouvelleFeuille(pool.couleur(node));
+                agrandir();
+                references[node] = 0;
+                occurrences[node] = 0;
+            }
+            vus.set(node);
+            System.arraycopy(sommes, 0, stats, 5 * node, 5);
+            occurrences[node]++;
+            sse += erreurFeuille(node, pool.couleur(node));
+            return node;
+        }
+        int halfSize = taille / 2;
+        int[] enfants = new int[4];
+        enfants[NodePool.NO] = statsPartageRec(pool.enfant(node, NodePool.NO), pixels, x, y, halfSize, vus);
+        enfants[NodePool.NE] = statsPartageRec(pool.enfant(node, NodePool.NE), pixels, x + halfSize, y, halfSize, vus);
+        enfants[NodePool.SE] = statsPartageRec(pool.enfant(node, NodePool.SE), pixels, x + halfSize, y + halfSize, halfSize, vus);
+        enfants[NodePool.SO] = statsPartageRec(pool.enfant(node, NodePool.SO), pixels, x, y + halfSize, halfSize, vus);
+        boolean change = false;
+        for (int k = NodePool.NO; k <= NodePool.SO; k++) {
+            change |= enfants[k] != pool.enfant(node, k);
+        }
+        if (change && vus.get(node)) {
+            // une autre occurrence a deja fixe les enfants du noeud: copie pour celle-ci
+            int copie = pool.nouveauNoeud(enfants[NodePool.NO], enfants[NodePool.NE], enfants[NodePool.SE], enfants[NodePool.SO]);
+            pool.setCouleur(copie, pool.couleur(node));
+            agrandir();
+            references[copie] = 0;
+            occurrences[copie] = 0;
+            for (int k = NodePool.NO; k <= NodePool.SO; k++) {
+                references[enfants[k]]++;
+            }
+            node = copie;
+        } else if (change) {
+            for (int k = NodePool.NO; k <= NodePool.SO; k++) {
+                int ancien = pool.enfant(node, k);
+                if (enfants[k] != ancien) {
+                    references[ancien]--;   // encore reference par l'occurrence qui l'a vu
+                    references[enfants[k]]++;
+                    pool.setEnfant(node, k, enfants[k]);
+                }
+            }
+        }
+        vus.set(node);
+        occurrences[node]++;
+        return node;
+    }
+
+    // Aire et sommes des composantes (et de leurs carres) des pixels d'un bloc
+    private long[] sommesBloc(int[] pixels, int x, int y, int taille){
+        long sr = 0, sv = 0, sb = 0, s2 = 0;
+        for (int j = y; j < y + taille; j++) {
+            for (int i = j * size + x, fin = i + taille; i < fin; i++) {
+                int rgb = pixels[i];
+                int r = (rgb >> 16) & 0xFF, v = (rgb >> 8) & 0xFF, b = rgb & 0xFF;
+                sr += r;
+                sv += v;
+                sb += b;
+                s2 += r * r + v * v + b * b;
+            }
         }
+        return new long[] {(long) taille * taille, sr, sv, sb, s2};
+    }
 
-        // Verifier si ce noeud est une sur-feuille 
-        if(node.no.isLeaf && node.ne.isLeaf && node.se.isLeaf && node.so.isLeaf){
-            // calcul de la couleur moyenne
-            Color avgColor = CouleurMoyenne(node.no.color, node.ne.color,node.se.color, node.so.color);
+    private boolean memesSommes(int node, long[] sommes){
+        for (int i = 0; i < 5; i++) {
+            if (stats[5 * node + i] != sommes[i]) return false;
+        }
+        return true;
+    }
 
-            // calcul la luminance moyenne 
-            double avglum = luminance(avgColor); 
+    // Profondeur d'une occurrence: un chemin est 1 suivi de 2 bits par niveau (NO, NE, SE, SO)
+    private static int profondeur(long chemin){
+        return (63 - Long.numberOfLeadingZeros(chemin)) / 2;
+    }
 
-            // La dégradation mesure a quel point on perd de la qualite en remplaçant les 4 couleurs par leur moyenne.
-            double maxDeg = 0; 
-            maxDeg = Math.max(maxDeg, Math.abs(avglum - luminance(node.no.color)));
-            maxDeg = Math.max(maxDeg, Math.abs(avglum - luminance(node.ne.color)));
-            maxDeg = Math.max(maxDeg, Math.abs(avglum - luminance(node.se.color)));
-            maxDeg = Math.max(maxDeg, Math.abs(avglum - luminance(node.so.color)));
+    // Rang prefixe d'une occurrence: chemin complete a la profondeur maximale (seul un ancetre peut egaler)
+    private long cle(long chemin){
+        int profondeur = profondeur(chemin);
+        return (chemin ^ (1L << 2 * profondeur)) << 2 * (Integer.numberOfTrailingZeros(size) - profondeur);
+    }
 
-            return new SurFeuille(node, maxDeg, avgColor);
+    // Noeud d'une occurrence, en descendant depuis la racine
+    private int noeud(long chemin){
+        int node = root;
+        for (int i = 2 * (profondeur(chemin) - 1); i >= 0; i -= 2) {
+            node = pool.enfant(node, (int) (chemin >>> i) & 3);
         }
+        return node;
+    }
 
-        //cherche recursivement dans les sous-arbres 
-        SurFeuille best = null;
-        // NO
-        SurFeuille noResultat = BestSurfeuille(node.no);
-        if(noResultat != null && (best == null || noResultat.degradation < best.degradation)){
-            best = noResultat;
+    /**
+     * Copie sur ecriture d'une occurrence du DAG, avant de l'elaguer
+     * Chaque noeud partage du chemin depuis la racine est remplace par une copie (memes enfants,
+     * qui gagnent un pere); les autres occurrences gardent l'original et tout le reste du DAG
+     * reste partage.
+     * Complexite: O(profondeur)
+     * @param chemin
+     * @return le noeud de l'occurrence, qui n'a plus qu'un pere
+     */
+    private int copierChemin(long chemin){
+        int node = root;
+        for (int i = 2 * (profondeur(chemin) - 1); i >= 0; i -= 2) {
+            int k = (int) (chemin >>> i) & 3;
+            int enfant = pool.enfant(node, k);
+            if (references[enfant] > 1) {
+                enfant = copierEnfant(node, k, enfant);
+            }
+            node = enfant;
         }
-        // NE
-        SurFeuille neResultat = BestSurfeuille(node.ne);
-        if(neResultat != null && (best == null || neResultat.degradation < best.degradation)){
-            best = neResultat;
+        return node;
+    }
+
+    // Remplace l'enfant partage k du noeud pere par une copie (noeud interne non replie)
+    private int copierEnfant(int pere, int k, int enfant){
+        int copie = pool.nouveauNoeud(pool.enfant(enfant, NodePool.NO), pool.enfant(enfant, NodePool.NE),
+                                      pool.enfant(enfant, NodePool.SE), pool.enfant(enfant, NodePool.SO));
+        pool.setCouleur(copie, pool.couleur(enfant)); // couleur moyenne eventuelle (voir toPNG(int))
+        pool.setEnfant(pere, k, copie);
+        agrandir();
+        for (int j = NodePool.NO; j <= NodePool.SO; j++) {
+            references[pool.enfant(copie, j)]++;
         }
-        // SE
-        SurFeuille seResultat = BestSurfeuille(node.se);
-        if(seResultat != null && (best == null || seResultat.degradation < best.degradation)){
-            best = seResultat; 
+        references[enfant]--;
+        references[copie] = 1;
+        if (stats != null) {
+            System.arraycopy(stats, 5 * enfant, stats, 5 * copie, 5);
+            occurrences[enfant]--;
+            occurrences[copie] = 1;
         }
-        // SO
-        SurFeuille soResultat = BestSurfeuille(node.so);
-        if(soResultat != null && (best == null || soResultat.degradation < best.degradation)){
-            best = soResultat;
+        if (reversible != null) {
+            reversible.fusions[copie] = reversible.fusions[enfant];
+            reversible.noterCopie(copie, enfant, pere, k);
         }
-
-        return best; 
+        return copie;
     }
 
-    // Elarguer un noeud specifique (le transformer en une feuille)
-    private Node Elarguage(Node node, SurFeuille surFe){
-        if(node == null) return null;
+    // Agrandit les tableaux indexes par noeud apres l'allocation d'une copie
+    private void agrandir(){
+        int capacite = pool.capacite();
+        if (references.length < capacite) references = Arrays.copyOf(references, 2 * capacite);
+        if (occurrences != null && occurrences.length < capacite) occurrences = Arrays.copyOf(occurrences, 2 * capacite);
+        if (stats != null && stats.length < 5 * capacite) stats = Arrays.copyOf(stats, 10 * capacite);
+        if (reversible != null && reversible.fusions.length < capacite) {
+            reversible.fusions = Arrays.copyOf(reversible.fusions, 2 * capacite);
+        }
+    }
 
-        // si on  trouve  le noeud a elarguer 
-        if(node == surFe.parent){
-            return new Node (surFe.avgColor);
+    // Copie un sous-arbre d'une autre reserve dans celle de l'arbre
+    private int copier(NodePool source, int node){
+        if (source.estFeuille(node)) {
+            return pool.nouvelleFeuille(source.couleur(node));
         }
+        int no = copier(source, source.enfant(node, NodePool.NO));
+        int ne = copier(source, source.enfant(node, NodePool.NE));
+        int se = copier(source, source.enfant(node, NodePool.SE));
+        int so = copier(source, source.enfant(node, NodePool.SO));
+        return pool.nouveauNoeud(no, ne, se, so);
+    }
 
-        //sinon, continuer la rechercher dans les sous-arbres
-        if(!node.isLeaf){
-            node.no = Elarguage(node.no, surFe);
-            node.ne = Elarguage(node.ne, surFe);
-            node.se = Elarguage(node.se, surFe);
-            node.so = Elarguage(node.so, surFe);
+    // Rendu recursif d'un sous-arbre dans la region (rx, ry, w, h), quadrants hors de la region ignores
+    private void renderRegionRec(ImagePNG img, int rx, int ry, int w, int h, int node, int x, int y, int taille) {
+        if (node == NodePool.NULL) return;
+        if (x >= rx + w || rx >= x + taille || y >= ry + h || ry >= y + taille) return;
+        if (pool.estFeuille(node)) {
+            // intersection du bloc de la feuille et de la region
+            int gauche = Math.max(x, rx), haut = Math.max(y, ry);
+            int droite = Math.min(x + taille, rx + w), bas = Math.min(y + taille, ry + h);
+            img.fillRect(gauche - rx, haut - ry, droite - gauche, bas - haut, pool.couleur(node));
+            return;
         }
-        return node;
+        int halfSize = taille / 2;
+        renderRegionRec(img, rx, ry, w, h, pool.enfant(node, NodePool.NO), x, y, halfSize);
+        renderRegionRec(img, rx, ry, w, h, pool.enfant(node, NodePool.NE), x + halfSize, y, halfSize);
+        renderRegionRec(img, rx, ry, w, h, pool.enfant(node, NodePool.SE), x + halfSize, y + halfSize, halfSize);
+        renderRegionRec(img, rx, ry, w, h, pool.enfant(node, NodePool.SO), x, y + halfSize, halfSize);
     }
-    
-    
-    //----------METHODES RECURSIVES ASSOCIEES AUX FONCTIONNALITES DE RQuadtree ------------------------
 
     /**
-     * construire l'arbre recursivement a partir de l'image 
-     * @param image
-     * @param x
-     * @param y
-     * @param taille
-     * @return Le noeud racine du sous-arbre
+     * Couleurs distinctes des feuilles, triees, si elles sont au plus max
+     * (ensemble a adressage ouvert de 2*max cases, parcours arrete des qu'il deborde)
+     * @return la palette, ou null si l'arbre est vide ou a plus de max couleurs
      */
-    private Node buildTree(ImagePNG image, int x, int y,int taille ){
-        if(taille == 1){
-            //pixel unique
-            return new Node(image.getPixel(x,y));
+    private int[] paletteBornee(int max) {
+        if (root == NodePool.NULL) return null;
+        int[] cases = new int[Integer.highestOneBit(2 * max - 1) << 1];
+        Arrays.fill(cases, -1);
+        int n = ajouterCouleurs(root, cases, 0, max);
+        if (n > max) return null;
+        int[] palette = new int[n];
+        int i = 0;
+        for (int c : cases) {
+            if (c >= 0) palette[i++] = c;
         }
-        // Cas Recursif
-        // 1. Diviser la region en 4
-        // 2. Construire recursivement sur chaque sous-arbre
-        // 3. verifier si tout les pixels ont la meme couleur
-        //      si oui, creer une feuille sinon creer un noeud interne 
-        
-        int halfSize = taille / 2; 
-        Node no = buildTree(image, x, y, halfSize);
-        Node ne = buildTree(image, x + halfSize, y, halfSize);
-        Node se = buildTree(image, x + halfSize, y + halfSize, halfSize);
-        Node so = buildTree(image, x , y + halfSize, halfSize);
-        
+        Arrays.sort(palette);
+        return palette;
+    }
 
-        // verifier si tous les enfants sont des feuilles et ont la meme couleurs  
-        if(no.isLeaf && ne.isLeaf && so.isLeaf && se.isLeaf && 
-            sameColor(no.color, ne.color) && sameColor(ne.color, so.color) && sameColor(so.color, se.color)){
-                return new Node(no.color);
+    // Ajoute les couleurs des feuilles a l'ensemble cases (-1 = vide); renvoie le nombre de couleurs, arrete au-dela de max
+    private int ajouterCouleurs(int node, int[] cases, int n, int max) {
+        if (pool.estFeuille(node)) {
+            int rgb = pool.couleur(node);
+            int masque = cases.length - 1;
+            int i = (rgb * 0x9E3779B9 >>> 16) & masque;
+            while (cases[i] >= 0 && cases[i] != rgb) i = (i + 1) & masque;
+            if (cases[i] < 0) {
+                cases[i] = rgb;
+                n++;
+            }
+            return n;
+        }
+        for (int k = NodePool.NO; k <= NodePool.SO && n <= max; k++) {
+            n = ajouterCouleurs(pool.enfant(node, k), cases, n, max);
+        }
+        return n;
+    }
+
+    // Ecrit l'indice de palette de chaque feuille sur les lignes de son bloc (voir savePNG)
+    private void indicesRec(int node, int[] palette, byte[] indices, int x, int y, int taille) {
+        if (pool.estFeuille(node)) {
+            byte indice = (byte) Arrays.binarySearch(palette, pool.couleur(node));
+            for (int j = y, debut = y * size + x; j < y + taille; j++, debut += size) {
+                Arrays.fill(indices, debut, debut + taille, indice);
+            }
+            return;
+        }
+        int halfSize = taille / 2;
+        indicesRec(pool.enfant(node, NodePool.NO), palette, indices, x, y, halfSize);
+        indicesRec(pool.enfant(node, NodePool.NE), palette, indices, x + halfSize, y, halfSize);
+        indicesRec(pool.enfant(node, NodePool.SE), palette, indices, x + halfSize, y + halfSize, halfSize);
+        indicesRec(pool.enfant(node, NodePool.SO), palette, indices, x, y + halfSize, halfSize);
+    }
+
+    // Rendu d'un sous-arbre dans un bloc de cote taille de l'image reduite
+    private void toPNG_LOD(ImagePNG img, int node, int x, int y, int taille) {
+        if (node == NodePool.NULL) return;
+        if (taille == 1 || pool.estFeuille(node)) {
+            // feuille, ou sous-arbre plus fin que la resolution: un bloc de sa couleur (moyenne)
+            img.fillRect(x, y, taille, taille, pool.couleur(node));
+            return;
         }
-        return new Node(no, ne, se, so);
+        int halfSize = taille / 2;
+        toPNG_LOD(img, pool.enfant(node, NodePool.NO), x, y, halfSize);
+        toPNG_LOD(img, pool.enfant(node, NodePool.NE), x + halfSize, y, halfSize);
+        toPNG_LOD(img, pool.enfant(node, NodePool.SE), x + halfSize, y + halfSize, halfSize);
+        toPNG_LOD(img, pool.enfant(node, NodePool.SO), x, y + halfSize, halfSize);
+    }
+
+    // Ecrit dans chaque noeud interne la moyenne (CouleurMoyenne) des couleurs de ses enfants, en post-fixe
+    private int calculerMoyennes(int node) {
+        if (pool.estFeuille(node)) return pool.couleur(node);
+        int no = calculerMoyennes(pool.enfant(node, NodePool.NO));
+        int ne = calculerMoyennes(pool.enfant(node, NodePool.NE));
+        int se = calculerMoyennes(pool.enfant(node, NodePool.SE));
+        int so = calculerMoyennes(pool.enfant(node, NodePool.SO));
+        int avgColor = CouleurMoyenne(no, ne, se, so);
+        pool.setCouleur(node, avgColor);
+        return avgColor;
     }
 
      /**
@@ -271,17 +2119,13 @@ public class RQuadtree {
      * @param y Coordonnée y du coin supérieur gauche de la région
      * @param taille Taille de la région carrée
      */
-    private void toPNG_Rec(ImagePNG img, Node node, int x, int y, int taille) {
-        if (node == null) return;
+    private void toPNG_Rec(ImagePNG img, int node, int x, int y, int taille) {
+        if (node == NodePool.NULL) return;
 
         // Cas de base : nœud feuille
-        if (node.isLeaf) {
-            // Remplir toute la région avec la couleur du nœud
-            for (int i = x; i < x + taille; i++) {
-                for (int j = y; j < y + taille; j++) {
-                    img.setPixel(i, j, node.color);
-                }
-            }
+        if (pool.estFeuille(node)) {
+            // Remplir toute la région avec la couleur du nœud (un bloc par feuille)
+            img.fillRect(x, y, taille, taille, pool.couleur(node));
             return;
         }
         
@@ -290,16 +2134,16 @@ public class RQuadtree {
         int halfSize = taille / 2;
         
         // Nord-Ouest (NO): coin supérieur gauche
-        toPNG_Rec(img, node.no, x, y, halfSize);
+        toPNG_Rec(img, pool.enfant(node, NodePool.NO), x, y, halfSize);
         
         // Nord-Est (NE): coin supérieur droit
-        toPNG_Rec(img, node.ne, x + halfSize, y, halfSize);
+        toPNG_Rec(img, pool.enfant(node, NodePool.NE), x + halfSize, y, halfSize);
         
         // Sud-Est (SE): coin inférieur droit
-        toPNG_Rec(img, node.se, x + halfSize, y + halfSize, halfSize);
+        toPNG_Rec(img, pool.enfant(node, NodePool.SE), x + halfSize, y + halfSize, halfSize);
         
         // Sud-Ouest (SO): coin inférieur gauche
-        toPNG_Rec(img, node.so, x, y + halfSize, halfSize);
+        toPNG_Rec(img, pool.enfant(node, NodePool.SO), x, y + halfSize, halfSize);
     }
 
     /**
@@ -308,47 +2152,211 @@ public class RQuadtree {
      * @param lambda
      * @return
     */
-    private Node compressLambdaRec(Node node, int lambda){
-        if (node == null || node.isLeaf){
+    private int compressLambdaRec(int node, int lambda){
+        if (node == NodePool.NULL || pool.estFeuille(node)){
             return node;
         }
 
         //Recursivité sur chaque noeud
-        node.no = compressLambdaRec(node.no, lambda);
-        node.ne = compressLambdaRec(node.ne, lambda);
-        node.se = compressLambdaRec(node.se, lambda);
-        node.so = compressLambdaRec(node.so, lambda);
+        for(int k = NodePool.NO; k <= NodePool.SO; k++){
+            compressLambdaRec(pool.enfant(node, k), lambda);
+        }
 
         //verifie si ce noeud est une sur-feuille 
-        if(node.no.isLeaf && node.ne.isLeaf && node.se.isLeaf && node.so.isLeaf){
+        if(estSurFeuille(node)){
             // calcul la degradation en luminance 
             // si X < lambda, on retourne une feuille avec la couleur moyenne 
-            Color avgColor = CouleurMoyenne(node.no.color, node.ne.color,node.se.color, node.so.color);
-            double avglum = luminance(avgColor); 
+            // (le noeud devient feuille sur place, ses 4 feuilles sont recyclees)
+            int avgColor = CouleurMoyenne(node);
+            if(degradation(node, avgColor) < lambda){
+                elaguer(node, avgColor);
+            }
+        }
+        return node;    
+    }
+    
+    /**
+     * Tache de compression lambda d'un sous-arbre
+     * Les elagages ne sont pas appliques a la reserve (BitSet et pile de cases libres partages):
+     * la couleur moyenne est ecrite dans la case du noeud (cases distinctes par tache) et le noeud
+     * est note dans la liste de la tache, en ordre post-fixe.
+     */
+    private class CompressionLambda extends RecursiveTask<Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        final int node, lambda, profondeur;
+        CompressionLambda[] sousTaches;
+        int[] fusions = new int[16];
+        int nbFusions;
+
+        CompressionLambda(int node, int lambda, int profondeur){
+            this.node = node;
+            this.lambda = lambda;
+            this.profondeur = profondeur;
+        }
 
-            double maxDeg = 0; 
-            maxDeg = Math.max(maxDeg, Math.abs(avglum - luminance(node.no.color)));
-            maxDeg = Math.max(maxDeg, Math.abs(avglum - luminance(node.ne.color)));
-            maxDeg = Math.max(maxDeg, Math.abs(avglum - luminance(node.se.color)));
-            maxDeg = Math.max(maxDeg, Math.abs(avglum - luminance(node.so.color)));
+        @Override
+        protected Boolean compute(){
+            if (pool.estFeuille(node)) return true;
+            if (profondeur >= PROFONDEUR_PARALLELE) return compresser(node);
 
-            if(maxDeg < lambda){
-                return new Node(avgColor);
+            sousTaches = new CompressionLambda[4];
+            for(int k = NodePool.NO; k <= NodePool.SO; k++){
+                sousTaches[k] = new CompressionLambda(pool.enfant(node, k), lambda, profondeur + 1);
+            }
+            invokeAll(sousTaches);
+            boolean surFeuille = true;
+            for(CompressionLambda t : sousTaches){
+                surFeuille &= t.join();
+            }
+            return surFeuille && fusionner(node);
+        }
+
+        // Version sequentielle: rend true si le noeud est (devenu) une feuille
+        private boolean compresser(int n){
+            if (pool.estFeuille(n)) return true;
+            boolean surFeuille = true;
+            for(int k = NodePool.NO; k <= NodePool.SO; k++){
+                surFeuille &= compresser(pool.enfant(n, k));
+            }
+            return surFeuille && fusionner(n);
+        }
+
+        // Sur-feuille n: decide l'elagage (X < lambda) sans toucher aux indicateurs de feuille
+        private boolean fusionner(int n){
+            int avgColor = CouleurMoyenne(n);
+            if (degradation(n, avgColor) >= lambda) return false;
+            pool.setCouleur(n, avgColor);
+            if (nbFusions == fusions.length) fusions = Arrays.copyOf(fusions, 2 * nbFusions);
+            fusions[nbFusions++] = n;
+            return true;
+        }
+
+        // Applique les elagages decides, les enfants avant les peres
+        void appliquer(){
+            if (sousTaches != null) {
+                for(CompressionLambda t : sousTaches) t.appliquer();
+            }
+            for(int i = 0; i < nbFusions; i++){
+                elaguer(fusions[i], pool.couleur(fusions[i]));
             }
         }
-        return node;    
     }
     
-    private String toStringRec(Node node){
-        if(node == null) return " ())";
-        if(node.isLeaf){
-            return ImagePNG.colorToHex(node.color);
+    private void writeToRec(int node, Appendable out) throws IOException {
+        if(node == NodePool.NULL){
+            out.append(" ())");
+            return;
+        }
+        if(pool.estFeuille(node)){
+            ImagePNG.appendHex(out, pool.couleur(node));
+            return;
+        }
+        out.append('(');
+        writeToRec(pool.enfant(node, NodePool.NO), out);
+        out.append(' ');
+        writeToRec(pool.enfant(node, NodePool.NE), out);
+        out.append(' ');
+        writeToRec(pool.enfant(node, NodePool.SE), out);
+        out.append(' ');
+        writeToRec(pool.enfant(node, NodePool.SO), out);
+        out.append(')');
+    }
+
+    // Ecriture prefixe de la structure et des indices de palette des feuilles
+    private void ecrireRqt(int node, int[] palette, int bits, EcritureBits structure, EcritureBits feuilles){
+        if(pool.estFeuille(node)){
+            structure.ecrire(0, 1);
+            feuilles.ecrire(Arrays.binarySearch(palette, pool.couleur(node)), bits);
+            return;
+        }
+        structure.ecrire(1, 1);
+        for(int k = NodePool.NO; k <= NodePool.SO; k++){
+            ecrireRqt(pool.enfant(node, k), palette, bits, structure, feuilles);
+        }
+    }
+
+    // Nombre de noeuds et d'entrees d'index de chaque sous-arbre (post-fixe)
+    private void compterSousArbres(int node, int[] noeuds, int[] entrees){
+        noeuds[node] = 1;
+        entrees[node] = 0;
+        if(pool.estFeuille(node)) return;
+        for(int k = NodePool.NO; k <= NodePool.SO; k++){
+            int e = pool.enfant(node, k);
+            compterSousArbres(e, noeuds, entrees);
+            noeuds[node] += noeuds[e];
+            entrees[node] += entrees[e];
+        }
+        if(noeuds[node] >= RQT_BLOC) entrees[node]++;
+    }
+
+    // Entrees d'index en ordre prefixe; rend la position suivante dans index
+    private int ecrireIndex(int node, int[] noeuds, int[] entrees, int[] index, int i){
+        if(pool.estFeuille(node) || noeuds[node] < RQT_BLOC) return i;
+        for(int k = NodePool.NO; k <= NodePool.SE; k++){
+            int e = pool.enfant(node, k);
+            index[i + 2 * k] = noeuds[e];
+            index[i + 2 * k + 1] = entrees[e];
+        }
+        i += 6;
+        for(int k = NodePool.NO; k <= NodePool.SO; k++){
+            i = ecrireIndex(pool.enfant(node, k), noeuds, entrees, index, i);
+        }
+        return i;
+    }
+
+    // Lecture prefixe, symetrique de ecrireRqt
+    private int lireRqt(int[] palette, int bits, LectureBits structure, LectureBits feuilles){
+        if(structure.lire(1) == 0){
+            return pool.nouvelleFeuille(palette[feuilles.lire(bits)]);
+        }
+        int no = lireRqt(palette, bits, structure, feuilles);
+        int ne = lireRqt(palette, bits, structure, feuilles);
+        int se = lireRqt(palette, bits, structure, feuilles);
+        int so = lireRqt(palette, bits, structure, feuilles);
+        return pool.nouveauNoeud(no, ne, se, so);
+    }
+
+    // Nombre de bits d'un indice de palette: ceil(log2(k)), 0 pour une seule couleur
+    private static int bitsPourIndice(int k){
+        return (k <= 1) ? 0 : 32 - Integer.numberOfLeadingZeros(k - 1);
+    }
+
+    // Flux de bits en ecriture (bits de poids fort d'abord)
+    private static class EcritureBits {
+        byte[] octets = new byte[64];
+        int nbBits;
+
+        void ecrire(int valeur, int bits){
+            for(int b = bits - 1; b >= 0; b--){
+                if((nbBits >> 3) == octets.length) octets = Arrays.copyOf(octets, 2 * octets.length);
+                if(((valeur >> b) & 1) != 0) octets[nbBits >> 3] |= (byte) (0x80 >>> (nbBits & 7));
+                nbBits++;
+            }
+        }
+
+        void ecrire(DataOutputStream out) throws IOException {
+            out.write(octets, 0, (nbBits + 7) / 8);
+        }
+    }
+
+    // Flux de bits en lecture, a partir d'un octet donne d'un tableau
+    private static class LectureBits {
+        final byte[] octets;
+        long position;  // en bits
+
+        LectureBits(byte[] octets, int debut){
+            this.octets = octets;
+            this.position = 8L * debut;
         }
-        return "("+ toStringRec(node.no) + " " +
-                    toStringRec(node.ne) + " " +
-                    toStringRec(node.se) + " " +
-                    toStringRec(node.so) + ")"; 
 
+        int lire(int bits){
+            int valeur = 0;
+            for(int b = 0; b < bits; b++, position++){
+                valeur = (valeur << 1) | ((octets[(int) (position >> 3)] >> (7 - (int) (position & 7))) & 1);
+            }
+            return valeur;
+        }
     }
 
     // ******** METHODES UTILITAIRES *****************
@@ -356,17 +2364,11 @@ public class RQuadtree {
     /**
      * Calcule la luminance selon la formule 
      * L = 0.2126*R + 0.7152*G + 0.0722*B
-     * @param color
+     * @param rgb couleur compactee (0xRRGGBB)
      * @return
      */
-    private double luminance(Color color){
-        return 0.2126*color.getRed() + 0.7152*color.getGreen() + 0.0722*color.getBlue();
-    }
-
-    private boolean sameColor(Color c1, Color c2){
-        return c1.getRed() == c2.getRed() &&
-               c1.getGreen() == c2.getGreen() &&
-               c1.getBlue() == c2.getBlue();
+    private double luminance(int rgb){
+        return 0.2126*((rgb >> 16) & 0xFF) + 0.7152*((rgb >> 8) & 0xFF) + 0.0722*(rgb & 0xFF);
     }
 
     private boolean isPowerOfTwo(int n) {
@@ -382,39 +2384,61 @@ public class RQuadtree {
      * @param c4
      * @return la couleur moyenne ie (Rm, Vm, Bm)
      */
-    private Color CouleurMoyenne(Color c1, Color c2, Color c3, Color c4){
-        int rouge = (c1.getRed() + c2.getRed() + c3.getRed() + c4.getRed())/4;
-        int vert = (c1.getGreen() + c2.getGreen() + c3.getGreen() + c4.getGreen())/4;
-        int bleu = (c1.getBlue() + c2.getBlue() + c3.getBlue() + c4.getBlue())/4;
+    private int CouleurMoyenne(int c1, int c2, int c3, int c4){
+        int rouge = (((c1 >> 16) & 0xFF) + ((c2 >> 16) & 0xFF) + ((c3 >> 16) & 0xFF) + ((c4 >> 16) & 0xFF))/4;
+        int vert = (((c1 >> 8) & 0xFF) + ((c2 >> 8) & 0xFF) + ((c3 >> 8) & 0xFF) + ((c4 >> 8) & 0xFF))/4;
+        int bleu = ((c1 & 0xFF) + (c2 & 0xFF) + (c3 & 0xFF) + (c4 & 0xFF))/4;
 
-        return new Color(rouge, vert, bleu);
+        return (rouge << 16) | (vert << 8) | bleu;
     }
 
-    private int countLeaf(Node node){
-        if (node == null) return 0;
-        if(node.isLeaf) return 1; 
-        return countLeaf(node.no)+countLeaf(node.ne)+countLeaf(node.se)+countLeaf(node.so);   
+    private int countLeaf(int node){
+        if (node == NodePool.NULL) return 0;
+        if(pool.estFeuille(node)) return 1; 
+        return countLeaf(pool.enfant(node, NodePool.NO))+countLeaf(pool.enfant(node, NodePool.NE))
+              +countLeaf(pool.enfant(node, NodePool.SE))+countLeaf(pool.enfant(node, NodePool.SO));   
     }
 
     public int getLeafCount(){
         return countLeaf(root);
     }
 
+    /**
+     * Couleurs des feuilles (RGB compacte), dans l'ordre prefixe, doublons compris
+     * @return
+     */
+    public int[] couleursFeuilles(){
+        int[] colors = new int[countLeaf(root)];
+        couleursFeuillesRec(root, colors, 0);
+        return colors;
+    }
+
+    private int couleursFeuillesRec(int node, int[] colors, int i){
+        if(node == NodePool.NULL) return i;
+        if(pool.estFeuille(node)){
+            colors[i] = pool.couleur(node);
+            return i + 1;
+        }
+        for(int k = NodePool.NO; k <= NodePool.SO; k++){
+            i = couleursFeuillesRec(pool.enfant(node, k), colors, i);
+        }
+        return i;
+    }
+
     public List<Color> nbCouleur(){
         List<Color> colors = new ArrayList<>();
         compterCouleurs(root, colors);
         return colors; 
     }
 
-    private void compterCouleurs(Node node, List<Color> colors){
-        if(node == null) return;
-        if(node.isLeaf){
-            colors.add(node.color);
+    private void compterCouleurs(int node, List<Color> colors){
+        if(node == NodePool.NULL) return;
+        if(pool.estFeuille(node)){
+            colors.add(new Color(pool.couleur(node)));
         } else {
-            compterCouleurs(node.no, colors);
-            compterCouleurs(node.ne, colors);
-            compterCouleurs(node.se, colors);
-            compterCouleurs(node.so, colors);
+            for(int k = NodePool.NO; k <= NodePool.SO; k++){
+                compterCouleurs(pool.enfant(node, k), colors);
+            }
         }   
     }
 }
\ No newline at end of file
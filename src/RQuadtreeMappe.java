@@ -0,0 +1,225 @@
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Vue en lecture seule d'un R-Quadtree sauvegarde au format .rqt (voir RQuadtree.save)
+ * Le fichier est projete en memoire (FileChannel.map) et decode a la demande:
+ * seul l'en-tete est lu a l'ouverture, et une requete ne touche que les pages
+ * des noeuds traverses. L'index du fichier donne, pour les gros sous-arbres,
+ * la taille de chaque quadrant, ce qui permet de le sauter sans le lire;
+ * en dessous de la taille de bloc, les quadrants precedents sont parcourus bit a bit.
+ * Limite: un fichier de plus de 2 Go ne peut pas etre projete en une fois.
+ */
+public class RQuadtreeMappe {
+    private final MappedByteBuffer buffer;
+    private final int size;         // cote de l'image
+    private final int nbNoeuds;     // nombre de noeuds de l'arbre
+    private final int bits;         // bits par indice de palette
+    private final int bloc;         // taille minimale d'un sous-arbre indexe
+
+    // positions (en octets) des sections du fichier
+    private final int debutPalette, debutIndex, debutStructure, debutFeuilles;
+
+    /**
+     * Ouvre un fichier .rqt (versions 1 et 2, la version 1 n'a pas d'index)
+     * Complexite: O(1), independamment de la taille de l'arbre
+     * @param path chemin du fichier .rqt
+     * @throws IOException si le fichier est illisible ou n'est pas au format .rqt
+     */
+    public RQuadtreeMappe(String path) throws IOException {
+        try (FileChannel canal = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            // la projection reste valide apres la fermeture du canal
+            buffer = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+        }
+        if (buffer.capacity() < 16) throw new IOException("Fichier .rqt invalide: " + path);
+        int magic = buffer.getInt(0);
+        size = buffer.getInt(4);
+        nbNoeuds = buffer.getInt(8);
+        int nbCouleurs = buffer.getInt(12);
+        int nbEntrees = 0;
+        if (magic == RQuadtree.RQT_MAGIC) {
+            // en-tete de la version 2: 6 int
+            if (buffer.capacity() < 24) throw new IOException("Fichier .rqt tronque: " + path);
+            nbEntrees = buffer.getInt(16);
+            bloc = buffer.getInt(20);
+            debutPalette = 24;
+        } else if (magic == RQuadtree.RQT_MAGIC_V1) {
+            bloc = Integer.MAX_VALUE;
+            debutPalette = 16;
+        } else {
+            throw new IOException("Fichier .rqt invalide: " + path);
+        }
+        if (size < 0 || nbNoeuds < 0 || nbCouleurs < 0 || nbEntrees < 0 || bloc < 0) {
+            throw new IOException("Fichier .rqt invalide: " + path);
+        }
+        bits = (nbCouleurs <= 1) ? 0 : 32 - Integer.numberOfLeadingZeros(nbCouleurs - 1);
+        // positions calculees en long: un en-tete corrompu ne doit pas deborder
+        long index = debutPalette + 3L * nbCouleurs;
+        long structure = index + 24L * nbEntrees;
+        long feuilles = structure + (nbNoeuds + 7L) / 8;
+        long nbFeuilles = (3L * nbNoeuds + 1) / 4;
+        if (feuilles + (nbFeuilles * bits + 7) / 8 > buffer.capacity()) {
+            throw new IOException("Fichier .rqt tronque: " + path);
+        }
+        debutIndex = (int) index;
+        debutStructure = (int) structure;
+        debutFeuilles = (int) feuilles;
+    }
+
+    // Cote de l'image representee
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Couleur du pixel (x,y), en descendant NO/NE/SE/SO depuis la racine
+     * Complexite: O(profondeur) dans les niveaux indexes, plus au plus un bloc de noeuds parcouru
+     * @param x
+     * @param y
+     * @return couleur compactee (0xRRGGBB)
+     */
+    public int getRGB(int x, int y) {
+        if (x < 0 || y < 0 || x >= size || y >= size) {
+            throw new IllegalArgumentException("Pixel hors de l'image: (" + x + "," + y + ")");
+        }
+        if (nbNoeuds == 0) return 0;
+
+        // noeud courant: rang prefixe p, nombre de feuilles avant lui l,
+        // taille n de son sous-arbre (0 si inconnue) et numero e de son entree d'index
+        int p = 0, l = 0, n = nbNoeuds, e = 0;
+        int x0 = 0, y0 = 0, taille = size;
+        while (structure(p) == 1) {
+            int halfSize = taille / 2;
+            boolean est = x >= x0 + halfSize, sud = y >= y0 + halfSize;
+            int k = sud ? (est ? 2 : 3) : (est ? 1 : 0); // NO, NE, SE, SO
+            int pc = p + 1, lc = l, ec = e + 1;
+            if (n >= bloc) {
+                for (int j = 0; j < k; j++) {
+                    int nj = entree(e, 2 * j);
+                    pc += nj;
+                    lc += (3 * nj + 1) / 4;
+                    ec += entree(e, 2 * j + 1);
+                }
+                n = (k < 3) ? entree(e, 2 * k) : n - (pc - p);
+            } else {
+                for (int j = 0; j < k; j++) {
+                    int nj = sauter(pc);
+                    pc += nj;
+                    lc += (3 * nj + 1) / 4;
+                }
+                n = 0;
+            }
+            p = pc;
+            l = lc;
+            e = ec;
+            if (est) x0 += halfSize;
+            if (sud) y0 += halfSize;
+            taille = halfSize;
+        }
+        return couleurFeuille(l);
+    }
+
+    // Couleur du pixel (x,y)
+    public Color getPixel(int x, int y) {
+        return new Color(getRGB(x, y));
+    }
+
+    /**
+     * Rendu de la region w x h de coin superieur gauche (x,y)
+     * Seuls les quadrants qui chevauchent la region sont decodes
+     * @param x
+     * @param y
+     * @param w
+     * @param h
+     * @return une image w x h
+     */
+    public ImagePNG renderRegion(int x, int y, int w, int h) {
+        if (x < 0 || y < 0 || w <= 0 || h <= 0 || x + w > size || y + h > size) {
+            throw new IllegalArgumentException("Region hors de l'image");
+        }
+        ImagePNG img = new ImagePNG(w, h);
+        if (nbNoeuds > 0) {
+            rendre(img, x, y, w, h, 0, 0, nbNoeuds, 0, 0, 0, size);
+        }
+        return img;
+    }
+
+    /**
+     * Rendu recursif d'un sous-arbre dans la region (rx, ry, w, h)
+     * @return le nombre de noeuds du sous-arbre
+     */
+    private int rendre(ImagePNG img, int rx, int ry, int w, int h,
+                       int p, int l, int n, int e, int x0, int y0, int taille) {
+        if (structure(p) == 0) {
+            // intersection du bloc de la feuille et de la region
+            int gauche = Math.max(x0, rx), haut = Math.max(y0, ry);
+            int droite = Math.min(x0 + taille, rx + w), bas = Math.min(y0 + taille, ry + h);
+            img.fillRect(gauche - rx, haut - ry, droite - gauche, bas - haut, couleurFeuille(l));
+            return 1;
+        }
+        int halfSize = taille / 2;
+        boolean indexe = n >= bloc;
+        int pc = p + 1, lc = l, ec = e + 1;
+        for (int k = 0; k < 4; k++) {
+            int cx = x0 + ((k == 1 || k == 2) ? halfSize : 0);
+            int cy = y0 + ((k >= 2) ? halfSize : 0);
+            boolean chevauche = cx < rx + w && rx < cx + halfSize && cy < ry + h && ry < cy + halfSize;
+            int nk, ek = 0;
+            if (indexe) {
+                nk = (k < 3) ? entree(e, 2 * k) : n - (pc - p);
+                if (k < 3) ek = entree(e, 2 * k + 1);
+                if (chevauche) rendre(img, rx, ry, w, h, pc, lc, nk, ec, cx, cy, halfSize);
+            } else {
+                nk = chevauche ? rendre(img, rx, ry, w, h, pc, lc, 0, 0, cx, cy, halfSize) : sauter(pc);
+            }
+            pc += nk;
+            lc += (3 * nk + 1) / 4;
+            ec += ek;
+        }
+        return pc - p;
+    }
+
+    // -------------- Fonctions utlitaires------------------------------------
+
+    // Bit de structure du noeud de rang prefixe p (1 = interne)
+    private int structure(int p) {
+        return (buffer.get(debutStructure + (p >>> 3)) >> (7 - (p & 7))) & 1;
+    }
+
+    // Champ j de l'entree d'index e
+    private int entree(int e, int j) {
+        return buffer.getInt(debutIndex + 24 * e + 4 * j);
+    }
+
+    // Nombre de noeuds du sous-arbre de rang prefixe p, en lisant sa structure
+    private int sauter(int p) {
+        int q = p, attente = 1;
+        while (attente > 0) {
+            if ((q & 7) == 0 && attente > 8) {
+                // octet entier: l'attente ne peut pas s'annuler au milieu
+                attente += 4 * Integer.bitCount(buffer.get(debutStructure + (q >>> 3)) & 0xFF) - 8;
+                q += 8;
+            } else {
+                attente += 4 * structure(q) - 1;
+                q++;
+            }
+        }
+        return q - p;
+    }
+
+    // Couleur de la l-ieme feuille (ordre prefixe)
+    private int couleurFeuille(int l) {
+        long position = (long) l * bits;
+        int indice = 0;
+        for (int b = 0; b < bits; b++, position++) {
+            int octet = buffer.get(debutFeuilles + (int) (position >>> 3));
+            indice = (indice << 1) | ((octet >> (7 - (int) (position & 7))) & 1);
+        }
+        int i = debutPalette + 3 * indice;
+        return ((buffer.get(i) & 0xFF) << 16) | ((buffer.get(i + 1) & 0xFF) << 8) | (buffer.get(i + 2) & 0xFF);
+    }
+}
@@ -0,0 +1,114 @@
+import java.util.Arrays;
+
+/**
+ * Table de hachage structurelle des noeuds d'une reserve (hash-consing)
+ * Deux noeuds sont egaux s'ils sont deux feuilles de meme couleur, ou deux noeuds internes
+ * dont les 4 enfants sont les memes indices: les enfants etant eux-memes canoniques,
+ * deux sous-arbres identiques ont alors la meme racine et l'arbre devient un DAG.
+ * La table ne range que des indices de noeuds (adressage ouvert, sondage lineaire):
+ * la cle est relue dans la reserve.
+ */
+class TableNoeuds {
+    private final NodePool pool;
+    private int[] cases;    // indices de noeuds, NodePool.NULL pour une case vide
+    private int nbNoeuds;
+
+    TableNoeuds(NodePool pool) {
+        this.pool = pool;
+        this.cases = new int[1024];
+        Arrays.fill(cases, NodePool.NULL);
+    }
+
+    /**
+     * Feuille canonique de couleur rgb (allouee si elle n'existe pas encore)
+     * @param rgb
+     * @return l'indice de la feuille
+     */
+    int feuille(int rgb) {
+        rgb &= 0xFFFFFF;
+        int i = chercherFeuille(rgb);
+        if (cases[i] == NodePool.NULL) {
+            return inserer(i, pool.nouvelleFeuille(rgb));
+        }
+        return cases[i];
+    }
+
+    /**
+     * Noeud interne canonique d'enfants (canoniques) donnes (alloue s'il n'existe pas encore)
+     * @return l'indice du noeud
+     */
+    int noeud(int no, int ne, int se, int so) {
+        int i = chercherNoeud(no, ne, se, so);
+        if (cases[i] == NodePool.NULL) {
+            return inserer(i, pool.nouveauNoeud(no, ne, se, so));
+        }
+        return cases[i];
+    }
+
+    /**
+     * Representant canonique d'un noeud existant dont les enfants sont deja canoniques
+     * @param n
+     * @return n s'il devient le representant, sinon le noeud egal deja dans la table
+     */
+    int canonique(int n) {
+        int i = pool.estFeuille(n) ? chercherFeuille(pool.couleur(n))
+              : chercherNoeud(pool.enfant(n, NodePool.NO), pool.enfant(n, NodePool.NE),
+                              pool.enfant(n, NodePool.SE), pool.enfant(n, NodePool.SO));
+        if (cases[i] == NodePool.NULL) {
+            return inserer(i, n);
+        }
+        return cases[i];
+    }
+
+    // Nombre de noeuds distincts ranges
+    int taille() {
+        return nbNoeuds;
+    }
+
+    // -------------- Fonctions utlitaires------------------------------------
+
+    // Case de la feuille de couleur rgb, ou premiere case vide de sa sequence de sondage
+    private int chercherFeuille(int rgb) {
+        int masque = cases.length - 1;
+        for (int i = melanger(rgb) & masque; ; i = (i + 1) & masque) {
+            int n = cases[i];
+            if (n == NodePool.NULL || (pool.estFeuille(n) && pool.couleur(n) == rgb)) return i;
+        }
+    }
+
+    private int chercherNoeud(int no, int ne, int se, int so) {
+        int masque = cases.length - 1;
+        int h = melanger(((no * 31 + ne) * 31 + se) * 31 + so + 0x1000000);
+        for (int i = h & masque; ; i = (i + 1) & masque) {
+            int n = cases[i];
+            if (n == NodePool.NULL) return i;
+            if (!pool.estFeuille(n) && pool.enfant(n, NodePool.NO) == no && pool.enfant(n, NodePool.NE) == ne
+                    && pool.enfant(n, NodePool.SE) == se && pool.enfant(n, NodePool.SO) == so) return i;
+        }
+    }
+
+    private int inserer(int i, int n) {
+        cases[i] = n;
+        if (++nbNoeuds * 2 > cases.length) agrandir();
+        return n;
+    }
+
+    // Double la table (taux de remplissage <= 1/2) et y range a nouveau les noeuds
+    private void agrandir() {
+        int[] anciennes = cases;
+        cases = new int[2 * anciennes.length];
+        Arrays.fill(cases, NodePool.NULL);
+        for (int n : anciennes) {
+            if (n == NodePool.NULL) continue;
+            int i = pool.estFeuille(n) ? chercherFeuille(pool.couleur(n))
+                  : chercherNoeud(pool.enfant(n, NodePool.NO), pool.enfant(n, NodePool.NE),
+                                  pool.enfant(n, NodePool.SE), pool.enfant(n, NodePool.SO));
+            cases[i] = n;
+        }
+    }
+
+    private static int melanger(int x) {
+        x *= 0x9E3779B9;
+        return x ^ (x >>> 16);
+    }
+}
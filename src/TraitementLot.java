@@ -0,0 +1,301 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+
+/**
+ * Mode batch sur plusieurs images et plusieurs parametres, en une seule JVM
+ * java Main lot <dossier|motif> [lambda=v1,v2,...] [phi=v1,v2,...] [threads=N] [couleurs=k] [niveau=0..9] [resume=fichier.csv|.json] [dest=dossier]
+ * Les fichiers sont traites en parallele (un fichier par tache d'un pool de threads);
+ * chaque image est decodee une seule fois puis reutilisee pour toutes les valeurs de parametre.
+ * Pour chaque (fichier, methode, parametre), l'image compressee est ecrite comme en mode batch
+ * (<nom>_lambda20.png, a palette si l'arbre a au plus 256 couleurs; couleurs=k reduit la palette
+ * a k couleurs apres la compression, voir RQuadtree.quantize) et une ligne est ajoutee
+ * au resume: feuilles, EQM, ratio de poids et durees de chaque etape (lecture, construction,
+ * compression, ecriture avec le rendu, EQM).
+ */
+class TraitementLot {
+    // Une ligne du resume
+    private static class Resultat {
+        String fichier, methode;
+        int parametre, largeur, feuillesInitiales, feuilles, couleurs;
+        double eqm, ratio;
+        long tailleOriginale, tailleCompressee;
+        // durees en nanosecondes
+        long lecture, construction, compression, ecriture, calculEQM;
+        boolean palette;
+    }
+
+    private static final String[] COLONNES = {
+        "fichier", "methode", "parametre", "largeur", "feuilles_initiales", "feuilles", "couleurs", "eqm", "ratio",
+        "taille_originale", "taille_compressee", "palette",
+        "lecture_ms", "construction_ms", "compression_ms", "ecriture_ms", "eqm_ms"
+    };
+
+    // Nom d'une image ecrite par le mode lot ou le mode batch (<nom>_lambda20.png, <nom>_phi100.png)
+    private static final Pattern SORTIE = Pattern.compile(".*_(lambda|phi)\\d+\\.png", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Point d'entree du mode lot (args[0] == "lot")
+     * @param args arguments de la ligne de commande
+     */
+    static void executer(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: java Main lot <dossier|motif> [lambda=v1,v2,...] [phi=v1,v2,...] "
+                    + "[threads=N] [couleurs=k] [niveau=0..9] [resume=fichier.csv|.json] [dest=dossier]");
+            return;
+        }
+        try {
+            int[] lambdas = new int[0], phis = new int[0];
+            int threads = Runtime.getRuntime().availableProcessors();
+            int niveau = Deflater.DEFAULT_COMPRESSION;
+            int couleurs = 0;
+            String resume = "resume.csv";
+            String dest = null;
+            for (int i = 2; i < args.length; i++) {
+                int egal = args[i].indexOf('=');
+                String cle = (egal < 0) ? args[i] : args[i].substring(0, egal).toLowerCase();
+                String valeur = (egal < 0) ? "" : args[i].substring(egal + 1);
+                if (cle.equals("lambda")) {
+                    lambdas = lireValeurs(valeur);
+                } else if (cle.equals("phi")) {
+                    phis = lireValeurs(valeur);
+                } else if (cle.equals("threads")) {
+                    threads = Math.max(1, Integer.parseInt(valeur));
+                } else if (cle.equals("couleurs")) {
+                    couleurs = Integer.parseInt(valeur);
+                    if (couleurs < 1) {
+                        System.err.println("Nombre de couleurs invalide: " + valeur);
+                        return;
+                    }
+                } else if (cle.equals("niveau")) {
+                    niveau = Integer.parseInt(valeur);
+                    if (niveau < 0 || niveau > 9) {
+                        System.err.println("Niveau de compression invalide (0 a 9): " + valeur);
+                        return;
+                    }
+                } else if (cle.equals("resume")) {
+                    resume = valeur;
+                } else if (cle.equals("dest")) {
+                    dest = valeur;
+                } else {
+                    System.err.println("Option inconnue: " + args[i]);
+                    return;
+                }
+            }
+            if (lambdas.length == 0 && phis.length == 0) {
+                System.err.println("Aucune valeur de parametre (lambda=... ou phi=...)");
+                return;
+            }
+
+            List<File> fichiers = listerFichiers(args[1]);
+            System.out.println("=== Mode Lot ===");
+            System.out.println("Fichiers        : " + fichiers.size());
+            System.out.println("Lambda          : " + Arrays.toString(lambdas));
+            System.out.println("Phi             : " + Arrays.toString(phis));
+            System.out.println("Threads         : " + threads);
+            System.out.println("Couleurs        : " + (couleurs == 0 ? "toutes" : couleurs));
+            System.out.println("Niveau deflate  : " + (niveau < 0 ? "defaut" : niveau));
+
+            long debut = System.nanoTime();
+            List<Resultat> resultats = traiter(fichiers, lambdas, phis, threads, couleurs, niveau, dest);
+            long duree = System.nanoTime() - debut;
+
+            try (BufferedWriter out = new BufferedWriter(new FileWriter(resume))) {
+                if (resume.toLowerCase().endsWith(".json")) {
+                    ecrireJSON(resultats, out);
+                } else {
+                    ecrireCSV(resultats, out);
+                }
+            }
+            System.out.println(resultats.size() + " compressions en " + duree / 1000000 + " ms");
+            System.out.println("Resume          : " + resume);
+        } catch (Exception e) {
+            System.err.println("Erreur: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Traite les fichiers sur un pool de threads, un fichier par tache
+     * Un fichier en erreur est signale et n'interrompt pas les autres.
+     * @return les resultats, dans l'ordre des fichiers puis des parametres
+     */
+    private static List<Resultat> traiter(List<File> fichiers, int[] lambdas, int[] phis, int threads, int couleurs,
+                                          int niveau, String dest) throws InterruptedException {
+        ExecutorService executeur = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<Resultat>>> taches = new ArrayList<>();
+            for (File f : fichiers) {
+                taches.add(executeur.submit(() -> traiterFichier(f, lambdas, phis, couleurs, niveau, dest)));
+            }
+            List<Resultat> resultats = new ArrayList<>();
+            for (int i = 0; i < taches.size(); i++) {
+                try {
+                    resultats.addAll(taches.get(i).get());
+                } catch (ExecutionException e) {
+                    System.err.println("Erreur: " + fichiers.get(i) + ": " + e.getCause().getMessage());
+                }
+            }
+            return resultats;
+        } finally {
+            executeur.shutdown();
+        }
+    }
+
+    // Toutes les compressions d'un fichier, a partir d'une seule lecture de l'image
+    private static List<Resultat> traiterFichier(File f, int[] lambdas, int[] phis, int couleurs, int niveau,
+                                                 String dest) throws IOException {
+        long t0 = System.nanoTime();
+        ImagePNG img = new ImagePNG(f.getPath());
+        long lecture = System.nanoTime() - t0;
+
+        String nomDeBase = f.getName().replaceAll("\\.png$", "");
+        File dossier = (dest != null) ? new File(dest) : f.getAbsoluteFile().getParentFile();
+        List<Resultat> resultats = new ArrayList<>();
+        for (int m = 0; m < 2; m++) {
+            String methode = (m == 0) ? "lambda" : "phi";
+            for (int param : (m == 0) ? lambdas : phis) {
+                Resultat r = new Resultat();
+                r.fichier = f.getPath();
+                r.methode = methode;
+                r.parametre = param;
+                r.largeur = img.width();
+                r.lecture = lecture;
+
+                // l'arbre est reconstruit pour chaque parametre (la compression le modifie);
+                // construction sequentielle: le parallelisme est deja celui des fichiers
+                long t = System.nanoTime();
+                RQuadtree tree = new RQuadtree(img, 1);
+                r.construction = System.nanoTime() - t;
+                r.feuillesInitiales = tree.getLeafCount();
+                t = System.nanoTime();
+                tree.activerSuiviErreur(img);
+                r.calculEQM = System.nanoTime() - t;
+
+                if (m == 0) {
+                    tree.compressLambda(param);
+                } else {
+                    tree.compressPhi(param);
+                }
+                r.compression = tree.getDureeCompression();
+                if (couleurs > 0) {
+                    // reduction de la palette, comptee dans la compression
+                    t = System.nanoTime();
+                    r.couleurs = tree.quantize(couleurs).couleurs().length;
+                    r.compression += System.nanoTime() - t;
+                } else {
+                    r.couleurs = new AVL(tree).couleurs().length;
+                }
+                r.feuilles = tree.getLeafCount();
+
+                // PNG a palette ecrit directement depuis l'arbre,
+                // ou rendu par toPNG puis ecrit en RGB au-dela de 256 couleurs
+                File ficCompressee = new File(dossier, nomDeBase + "_" + methode + param + ".png");
+                t = System.nanoTime();
+                r.palette = tree.savePNG(ficCompressee.getPath(), niveau);
+                r.ecriture = System.nanoTime() - t;
+
+                t = System.nanoTime();
+                r.eqm = tree.currentEQM();
+                r.calculEQM += System.nanoTime() - t;
+
+                r.tailleOriginale = f.length();
+                r.tailleCompressee = ficCompressee.length();
+                r.ratio = Math.ceil(10000.0 * r.tailleCompressee / r.tailleOriginale) / 100.0;
+                resultats.add(r);
+            }
+        }
+        return resultats;
+    }
+
+    // -------------- Fonctions utlitaires------------------------------------
+
+    // Valeurs separees par des virgules
+    private static int[] lireValeurs(String liste) {
+        String[] morceaux = liste.split(",");
+        int[] valeurs = new int[morceaux.length];
+        for (int i = 0; i < morceaux.length; i++) {
+            valeurs[i] = Integer.parseInt(morceaux[i].trim());
+        }
+        return valeurs;
+    }
+
+    /**
+     * Fichiers designes par un dossier (tous ses .png) ou par un motif glob sur les noms
+     * d'un dossier (ex: pngs/256-*.png), tries par nom
+     * Les images compressees deja ecrites (voir SORTIE) sont ignorees: sans dest, elles sont
+     * a cote des originaux et un second lancement les recompresserait.
+     */
+    static List<File> listerFichiers(String chemin) throws IOException {
+        File f = new File(chemin);
+        File dossier = f.isDirectory() ? f : f.getParentFile();   // null: dossier courant
+        PathMatcher motif = FileSystems.getDefault().getPathMatcher("glob:" + (f.isDirectory() ? "*.png" : f.getName()));
+        File[] contenu = (dossier != null ? dossier : new File(".")).listFiles();
+        if (contenu == null) throw new IOException("Dossier illisible: " + dossier);
+        List<File> fichiers = new ArrayList<>();
+        for (File c : contenu) {
+            if (c.isFile() && motif.matches(Paths.get(c.getName())) && !SORTIE.matcher(c.getName()).matches()) {
+                fichiers.add(new File(dossier, c.getName()));
+            }
+        }
+        fichiers.sort((a, b) -> a.getPath().compareTo(b.getPath()));
+        return fichiers;
+    }
+
+    // Valeurs d'une ligne, dans l'ordre de COLONNES (durees en millisecondes)
+    private static String[] valeurs(Resultat r) {
+        return new String[] {
+            r.fichier, r.methode, Integer.toString(r.parametre), Integer.toString(r.largeur),
+            Integer.toString(r.feuillesInitiales), Integer.toString(r.feuilles), Integer.toString(r.couleurs),
+            Double.toString(r.eqm), Double.toString(r.ratio),
+            Long.toString(r.tailleOriginale), Long.toString(r.tailleCompressee), Boolean.toString(r.palette),
+            ms(r.lecture), ms(r.construction), ms(r.compression), ms(r.ecriture), ms(r.calculEQM)
+        };
+    }
+
+    private static String ms(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1000000.0);
+    }
+
+    private static void ecrireCSV(List<Resultat> resultats, BufferedWriter out) throws IOException {
+        out.write(String.join(",", COLONNES));
+        out.newLine();
+        for (Resultat r : resultats) {
+            String[] v = valeurs(r);
+            v[0] = "\"" + v[0].replace("\"", "\"\"") + "\"";
+            out.write(String.join(",", v));
+            out.newLine();
+        }
+    }
+
+    private static void ecrireJSON(List<Resultat> resultats, BufferedWriter out) throws IOException {
+        out.write("[");
+        for (int i = 0; i < resultats.size(); i++) {
+            String[] v = valeurs(resultats.get(i));
+            out.write(i == 0 ? "\n  {" : ",\n  {");
+            for (int c = 0; c < COLONNES.length; c++) {
+                if (c > 0) out.write(", ");
+                out.write("\"" + COLONNES[c] + "\": ");
+                // les deux premieres colonnes sont des chaines, les autres des nombres (ou un booleen)
+                out.write(c < 2 ? "\"" + v[c].replace("\\", "\\\\").replace("\"", "\\\"") + "\"" : v[c]);
+            }
+            out.write("}");
+        }
+        out.write("\n]");
+        out.newLine();
+    }
+}
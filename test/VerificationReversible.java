@@ -0,0 +1,115 @@
+import java.util.Random;
+
+/**
+ * Verification du mode reversible (RQuadtree.activerReversible)
+ * Apres chaque compressLambda ou compressPhi d'une suite aleatoire, l'arbre reversible doit etre
+ * identique (toString, getLeafCount) a un arbre reconstruit depuis l'image puis compresse avec
+ * le meme parametre, et le suivi d'erreur doit donner le meme EQM.
+ * Chaque image est essayee en arbre et en DAG (construirePartage).
+ * Sans argument: images aleatoires (motifs repetes, pour que le DAG partage des sous-arbres);
+ * sinon les images PNG donnees (cote puissance de 2).
+ *   javac -d bin src/*.java test/*.java
+ *   java -cp bin VerificationReversible [-n suites] [images.png ...]
+ * Code de sortie 1 au premier ecart.
+ */
+public class VerificationReversible {
+    private static final int OPERATIONS = 20;
+
+    public static void main(String[] args) throws Exception {
+        int suites = 200;
+        int debut = 0;
+        if (args.length >= 2 && args[0].equals("-n")) {
+            suites = Integer.parseInt(args[1]);
+            debut = 2;
+        }
+        int verifiees = 0;
+        if (debut == args.length) {
+            for (int graine = 0; graine < suites; graine++) {
+                Random hasard = new Random(graine);
+                ImagePNG image = imageAleatoire(hasard, 8 << hasard.nextInt(4));
+                verifiees += verifier(image, hasard, "graine " + graine);
+            }
+        } else {
+            for (int i = debut; i < args.length; i++) {
+                ImagePNG image = new ImagePNG(args[i]);
+                for (int s = 0; s < suites; s++) {
+                    verifiees += verifier(image, new Random(s), args[i] + " suite " + s);
+                }
+            }
+        }
+        System.out.println("OK: " + verifiees + " compressions identiques a une reconstruction");
+    }
+
+    // Une suite aleatoire sur l'arbre puis sur le DAG de l'image; renvoie le nombre de comparaisons
+    private static int verifier(ImagePNG image, Random hasard, String nom) {
+        int n = 0;
+        for (boolean partage : new boolean[] {false, true}) {
+            boolean suivi = hasard.nextBoolean();
+            RQuadtree arbre = partage ? RQuadtree.construirePartage(image) : new RQuadtree(image);
+            int feuilles = arbre.getLeafCount();
+            if (suivi) arbre.activerSuiviErreur(image);
+            arbre.activerReversible();
+            StringBuilder suite = new StringBuilder();
+            for (int op = 0; op < OPERATIONS; op++) {
+                RQuadtree attendu = new RQuadtree(image);
+                if (suivi) attendu.activerSuiviErreur(image);
+                if (hasard.nextBoolean()) {
+                    int lambda = hasard.nextInt(80);
+                    suite.append(" lambda=").append(lambda);
+                    arbre.compressLambda(lambda);
+                    attendu.compressLambda(lambda);
+                } else {
+                    int phi = 1 + hasard.nextInt(feuilles);
+                    suite.append(" phi=").append(phi);
+                    arbre.compressPhi(phi);
+                    attendu.compressPhi(phi);
+                }
+                String ecart = null;
+                if (arbre.getLeafCount() != attendu.getLeafCount()) {
+                    ecart = "feuilles " + arbre.getLeafCount() + " au lieu de " + attendu.getLeafCount();
+                } else if (!arbre.toString().equals(attendu.toString())) {
+                    ecart = "toString different";
+                } else if (suivi && arbre.currentEQM() != attendu.currentEQM()) {
+                    ecart = "EQM " + arbre.currentEQM() + " au lieu de " + attendu.currentEQM();
+                }
+                if (ecart != null) {
+                    System.err.println("ECHEC " + nom + (partage ? " (DAG)" : "") + (suivi ? " (suivi d'erreur)" : "")
+                                       + ":" + suite + " -> " + ecart);
+                    System.exit(1);
+                }
+                n++;
+            }
+        }
+        return n;
+    }
+
+    // Image de cote s pavee de quelques motifs (blocs de couleurs d'une petite palette)
+    private static ImagePNG imageAleatoire(Random hasard, int s) {
+        ImagePNG image = new ImagePNG(s, s);
+        int tuile = Math.max(2, s / (4 << hasard.nextInt(2)));
+        int[] palette = new int[2 + hasard.nextInt(6)];
+        for (int i = 0; i < palette.length; i++) palette[i] = hasard.nextInt(1 << 24);
+        int[][] motifs = new int[1 + hasard.nextInt(3)][tuile * tuile];
+        for (int[] motif : motifs) {
+            int bloc = 1 << hasard.nextInt(3);
+            for (int y = 0; y < tuile; y++) {
+                for (int x = 0; x < tuile; x++) {
+                    int by = y / bloc * bloc, bx = x / bloc * bloc;
+                    motif[y * tuile + x] = (by == y && bx == x) ? palette[hasard.nextInt(palette.length)]
+                                                                : motif[by * tuile + bx];
+                }
+            }
+        }
+        for (int ty = 0; ty < s; ty += tuile) {
+            for (int tx = 0; tx < s; tx += tuile) {
+                int[] motif = motifs[hasard.nextInt(motifs.length)];
+                for (int y = 0; y < tuile; y++) {
+                    for (int x = 0; x < tuile; x++) {
+                        image.setRGB(tx + x, ty + y, motif[y * tuile + x]);
+                    }
+                }
+            }
+        }
+        return image;
+    }
+}